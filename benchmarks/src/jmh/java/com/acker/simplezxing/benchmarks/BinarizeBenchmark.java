@@ -0,0 +1,59 @@
+package com.acker.simplezxing.benchmarks;
+
+import com.acker.simplezxing.core.RotatedYUVLuminanceSource;
+import com.google.zxing.Binarizer;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.GlobalHistogramBinarizer;
+import com.google.zxing.common.HybridBinarizer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thresholding the upright scan area with each binarizer the library can choose from.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class BinarizeBenchmark {
+
+    private LuminanceSource scanArea;
+
+    @Setup
+    public void setUp(PreviewFrame frame) {
+        byte[] matrix = new RotatedYUVLuminanceSource(frame.data, frame.width, frame.height, 90,
+                frame.left, frame.top, frame.scanWidth, frame.scanHeight, null).getMatrix();
+        scanArea = new PlanarYUVLuminanceSource(matrix, frame.scanWidth, frame.scanHeight,
+                0, 0, frame.scanWidth, frame.scanHeight, false);
+    }
+
+    @Benchmark
+    public BitMatrix hybrid() {
+        return getBlackMatrix(new HybridBinarizer(scanArea));
+    }
+
+    @Benchmark
+    public BitMatrix globalHistogram() {
+        return getBlackMatrix(new GlobalHistogramBinarizer(scanArea));
+    }
+
+    private static BitMatrix getBlackMatrix(Binarizer binarizer) {
+        try {
+            return binarizer.getBlackMatrix();
+        } catch (NotFoundException nfe) {
+            // Flat histogram, the binarizer gave up; that is a result too
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+package com.acker.simplezxing.benchmarks;
+
+import com.acker.simplezxing.core.DownsampledLuminanceSource;
+import com.acker.simplezxing.core.RotatedYUVLuminanceSource;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.PlanarYUVLuminanceSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cutting the scan area out of a landscape frame, which needs no rotation, and scaling the upright
+ * scan area down for pyramid decoding.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class CropBenchmark {
+
+    private byte[] matrixBuffer;
+    private byte[] downsampledBuffer;
+    /**
+     * Where the portrait scan area lies in the landscape frame.
+     */
+    private int cropLeft;
+    private int cropTop;
+    /**
+     * The scan area already upright, so that downsampling is timed alone.
+     */
+    private LuminanceSource scanArea;
+
+    @Setup
+    public void setUp(PreviewFrame frame) {
+        matrixBuffer = new byte[frame.scanWidth * frame.scanHeight];
+        downsampledBuffer = new byte[frame.scanWidth * frame.scanHeight / 4];
+        // Rotated pixel (x, y) is frame pixel (y, height - x - 1)
+        cropLeft = frame.top;
+        cropTop = frame.height - frame.left - frame.scanWidth;
+        byte[] matrix = new RotatedYUVLuminanceSource(frame.data, frame.width, frame.height, 90,
+                frame.left, frame.top, frame.scanWidth, frame.scanHeight, null).getMatrix();
+        scanArea = new PlanarYUVLuminanceSource(matrix, frame.scanWidth, frame.scanHeight,
+                0, 0, frame.scanWidth, frame.scanHeight, false);
+    }
+
+    @Benchmark
+    public byte[] planarCrop(PreviewFrame frame) {
+        return new PlanarYUVLuminanceSource(frame.data, frame.width, frame.height,
+                cropLeft, cropTop, frame.scanHeight, frame.scanWidth, false).getMatrix();
+    }
+
+    @Benchmark
+    public byte[] viewCrop(PreviewFrame frame) {
+        return new RotatedYUVLuminanceSource(frame.data, frame.width, frame.height, 0,
+                cropLeft, cropTop, frame.scanHeight, frame.scanWidth, matrixBuffer).getMatrix();
+    }
+
+    @Benchmark
+    public byte[] downsampleByTwo() {
+        return new DownsampledLuminanceSource(scanArea, 2, downsampledBuffer).getMatrix();
+    }
+
+    @Benchmark
+    public byte[] downsampleByFour() {
+        return new DownsampledLuminanceSource(scanArea, 4, downsampledBuffer).getMatrix();
+    }
+
+}
@@ -0,0 +1,89 @@
+package com.acker.simplezxing.benchmarks;
+
+import com.acker.simplezxing.core.DownsampledLuminanceSource;
+import com.acker.simplezxing.core.FormatScheduler;
+import com.acker.simplezxing.core.Frame;
+import com.acker.simplezxing.core.FrameDecoder;
+import com.acker.simplezxing.core.RotatedYUVLuminanceSource;
+import com.acker.simplezxing.core.ScanArea;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.common.HybridBinarizer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A whole frame through the decode path, from the preview buffer to the result, with the default
+ * hints. Frames which fail to decode are part of the picture: they cost a full pass of every reader.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class DecodeBenchmark {
+
+    private MultiFormatReader reader;
+    private byte[] matrixBuffer;
+    private byte[] downsampledBuffer;
+    private FrameDecoder frameDecoder;
+    private Frame portraitFrame;
+    private ScanArea scanArea;
+
+    @Setup
+    public void setUp(PreviewFrame frame) {
+        reader = new MultiFormatReader();
+        reader.setHints(null);
+        matrixBuffer = new byte[frame.scanWidth * frame.scanHeight];
+        downsampledBuffer = new byte[frame.scanWidth * frame.scanHeight / 4];
+        // The scanner's defaults: all formats, no history, serial families, hybrid binarizer only
+        frameDecoder = new FrameDecoder(new FormatScheduler(null, null), null, null, false, false, null, null, null);
+        portraitFrame = new Frame(frame.data, frame.width, frame.height, 90);
+        scanArea = new ScanArea(frame.left, frame.top, frame.scanWidth, frame.scanHeight);
+    }
+
+    /**
+     * Exactly what a decode thread of the scanner does with the frame.
+     */
+    @Benchmark
+    public Result frameDecoder() {
+        return frameDecoder.decode(portraitFrame, scanArea);
+    }
+
+    @Benchmark
+    public Result decode(PreviewFrame frame) {
+        return decode(scanArea(frame));
+    }
+
+    @Benchmark
+    public Result decodeDownsampled(PreviewFrame frame) {
+        LuminanceSource source = scanArea(frame);
+        int factor = DownsampledLuminanceSource.getFactor(source.getWidth(), source.getHeight());
+        return decode(factor == 1 ? source : new DownsampledLuminanceSource(source, factor, downsampledBuffer));
+    }
+
+    private LuminanceSource scanArea(PreviewFrame frame) {
+        return new RotatedYUVLuminanceSource(frame.data, frame.width, frame.height, 90,
+                frame.left, frame.top, frame.scanWidth, frame.scanHeight, matrixBuffer);
+    }
+
+    private Result decode(LuminanceSource source) {
+        try {
+            return reader.decodeWithState(new BinaryBitmap(new HybridBinarizer(source)));
+        } catch (ReaderException re) {
+            return null;
+        } finally {
+            reader.reset();
+        }
+    }
+
+}
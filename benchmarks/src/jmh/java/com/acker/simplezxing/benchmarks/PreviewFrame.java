@@ -0,0 +1,68 @@
+package com.acker.simplezxing.benchmarks;
+
+import com.google.zxing.BarcodeFormat;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * One synthetic preview frame plus the scan area the library would decode from it, shared by the
+ * benchmarks of every pipeline stage.
+ */
+@State(Scope.Benchmark)
+public class PreviewFrame {
+
+    @Param({"640x480", "1280x720", "1920x1080"})
+    public String previewSize;
+
+    @Param({"QR_CODE", "CODE_128", "DATA_MATRIX"})
+    public String format;
+
+    @Param({"CLEAN", "BLUR", "NOISE", "ROTATION"})
+    public String distortion;
+
+    /**
+     * VIEWFINDER for the centred square of the default viewfinder, FULL_SCREEN for the whole frame.
+     */
+    @Param({"VIEWFINDER", "FULL_SCREEN"})
+    public String scanArea;
+
+    /**
+     * The NV21 frame, in the sensor's landscape orientation.
+     */
+    byte[] data;
+    int width;
+    int height;
+    /**
+     * The scan area, in portrait display coordinates.
+     */
+    int left;
+    int top;
+    int scanWidth;
+    int scanHeight;
+
+    @Setup
+    public void setUp() {
+        int separator = previewSize.indexOf('x');
+        width = Integer.parseInt(previewSize.substring(0, separator));
+        height = Integer.parseInt(previewSize.substring(separator + 1));
+        data = SyntheticFrames.render(width, height, BarcodeFormat.valueOf(format),
+                SyntheticFrames.Distortion.valueOf(distortion));
+        // Portrait: the display is height wide and width high
+        if ("FULL_SCREEN".equals(scanArea)) {
+            left = 0;
+            top = 0;
+            scanWidth = height;
+            scanHeight = width;
+        } else {
+            // CameraManager targets 3/4 of the screen width, squared
+            scanWidth = height * 3 / 4;
+            scanHeight = scanWidth;
+            left = (height - scanWidth) / 2;
+            top = (width - scanHeight) / 2;
+        }
+    }
+
+}
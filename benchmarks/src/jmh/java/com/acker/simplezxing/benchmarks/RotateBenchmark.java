@@ -0,0 +1,53 @@
+package com.acker.simplezxing.benchmarks;
+
+import com.acker.simplezxing.core.RotatedYUVLuminanceSource;
+import com.google.zxing.PlanarYUVLuminanceSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Getting the upright luminance of the scan area out of a portrait frame: the whole-frame rotation
+ * loop the library started with, against the rotated view it uses now.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class RotateBenchmark {
+
+    private byte[] matrixBuffer;
+
+    @Setup
+    public void setUp(PreviewFrame frame) {
+        matrixBuffer = new byte[frame.scanWidth * frame.scanHeight];
+    }
+
+    @Benchmark
+    public byte[] fullFrameRotation(PreviewFrame frame) {
+        // Display dimensions, as DecodeHandler used to receive them
+        int width = frame.height;
+        int height = frame.width;
+        byte[] data = frame.data;
+        byte[] rotatedData = new byte[data.length];
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++)
+                rotatedData[y * width + width - x - 1] = data[y + x * height];
+        }
+        return new PlanarYUVLuminanceSource(rotatedData, width, height,
+                frame.left, frame.top, frame.scanWidth, frame.scanHeight, false).getMatrix();
+    }
+
+    @Benchmark
+    public byte[] rotatedView(PreviewFrame frame) {
+        return new RotatedYUVLuminanceSource(frame.data, frame.width, frame.height, 90,
+                frame.left, frame.top, frame.scanWidth, frame.scanHeight, matrixBuffer).getMatrix();
+    }
+
+}
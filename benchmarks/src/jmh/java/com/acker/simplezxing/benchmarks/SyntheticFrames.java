@@ -0,0 +1,159 @@
+package com.acker.simplezxing.benchmarks;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.MultiFormatWriter;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Deterministic NV21 preview frames of a barcode rendered with the ZXing writers, as a phone held
+ * in portrait would deliver them: in the sensor's landscape orientation, the code upright only once
+ * the frame is rotated clockwise. The same arguments always give the same bytes.
+ */
+final class SyntheticFrames {
+
+    static final String MATRIX_CONTENTS = "https://github.com/GuoJinyu/SimpleZXing";
+    /**
+     * Digits, which the linear formats encode most compactly, so the code fits the viewfinder.
+     */
+    static final String LINEAR_CONTENTS = "20161118154100";
+
+    private static final int BACKGROUND = 200;
+    private static final int INK = 40;
+
+    private SyntheticFrames() {
+    }
+
+    /**
+     * @param width      Width of the preview frame, in the sensor's orientation.
+     * @param height     Height of the preview frame, in the sensor's orientation.
+     * @param format     What to render.
+     * @param distortion What to do to the frame afterwards.
+     * @return The NV21 frame: the Y plane followed by an interleaved, neutral VU plane.
+     */
+    static byte[] render(int width, int height, BarcodeFormat format, Distortion distortion) {
+        // Render upright in display coordinates, portrait, then lay it out the way the sensor would
+        int displayWidth = height;
+        int displayHeight = width;
+        int[] display = new int[displayWidth * displayHeight];
+        Arrays.fill(display, BACKGROUND);
+        drawCode(display, displayWidth, displayHeight, format,
+                distortion == Distortion.ROTATION ? Math.toRadians(10.0) : 0.0);
+        Random random = new Random(31L * width * height + format.ordinal() * 7L + distortion.ordinal());
+        switch (distortion) {
+            case BLUR:
+                boxBlur(display, displayWidth, displayHeight, 2);
+                break;
+            case NOISE:
+                for (int i = 0; i < display.length; i++) {
+                    display[i] += (int) Math.round(random.nextGaussian() * 4.0);
+                }
+                break;
+            default:
+                break;
+        }
+        byte[] frame = new byte[width * height * 3 / 2];
+        for (int y = 0; y < displayHeight; y++) {
+            for (int x = 0; x < displayWidth; x++) {
+                // Display pixel (x, y) is sensor pixel (y, height - x - 1)
+                int luminance = Math.max(0, Math.min(255, display[y * displayWidth + x]));
+                frame[(height - x - 1) * width + y] = (byte) luminance;
+            }
+        }
+        Arrays.fill(frame, width * height, frame.length, (byte) 128);
+        return frame;
+    }
+
+    static String getContents(BarcodeFormat format) {
+        return isLinear(format) ? LINEAR_CONTENTS : MATRIX_CONTENTS;
+    }
+
+    private static boolean isLinear(BarcodeFormat format) {
+        return format != BarcodeFormat.QR_CODE && format != BarcodeFormat.DATA_MATRIX
+                && format != BarcodeFormat.AZTEC && format != BarcodeFormat.PDF_417;
+    }
+
+    private static void drawCode(int[] display, int width, int height, BarcodeFormat format, double angle) {
+        int side = Math.min(width, height) / 2;
+        boolean linear = isLinear(format);
+        int codeWidth = linear ? side * 5 / 4 : side;
+        int codeHeight = linear ? side / 2 : side;
+        BitMatrix matrix;
+        try {
+            Map<EncodeHintType, Object> hints = new EnumMap<>(EncodeHintType.class);
+            hints.put(EncodeHintType.MARGIN, 0);
+            matrix = new MultiFormatWriter().encode(getContents(format), format, 0, 0, hints);
+        } catch (WriterException we) {
+            throw new IllegalArgumentException(we);
+        }
+        int moduleSize = Math.max(1, Math.min(codeWidth / matrix.getWidth(), codeHeight / matrix.getHeight()));
+        int renderedWidth = matrix.getWidth() * moduleSize;
+        int renderedHeight = linear ? codeHeight : matrix.getHeight() * moduleSize;
+        double centerX = width / 2.0;
+        double centerY = height / 2.0;
+        double cos = Math.cos(angle);
+        double sin = Math.sin(angle);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // Map back onto the unrotated code, centred in the frame
+                double dx = x - centerX;
+                double dy = y - centerY;
+                int codeX = (int) Math.floor(cos * dx + sin * dy + renderedWidth / 2.0);
+                int codeY = (int) Math.floor(-sin * dx + cos * dy + renderedHeight / 2.0);
+                if (codeX < 0 || codeY < 0 || codeX >= renderedWidth || codeY >= renderedHeight) {
+                    continue;
+                }
+                int moduleY = linear ? 0 : codeY / moduleSize;
+                if (matrix.get(codeX / moduleSize, moduleY)) {
+                    display[y * width + x] = INK;
+                }
+            }
+        }
+    }
+
+    private static void boxBlur(int[] pixels, int width, int height, int radius) {
+        int[] row = new int[Math.max(width, height)];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                row[x] = pixels[y * width + x];
+            }
+            for (int x = 0; x < width; x++) {
+                int sum = 0;
+                int count = 0;
+                for (int i = Math.max(0, x - radius); i <= Math.min(width - 1, x + radius); i++) {
+                    sum += row[i];
+                    count++;
+                }
+                pixels[y * width + x] = sum / count;
+            }
+        }
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                row[y] = pixels[y * width + x];
+            }
+            for (int y = 0; y < height; y++) {
+                int sum = 0;
+                int count = 0;
+                for (int i = Math.max(0, y - radius); i <= Math.min(height - 1, y + radius); i++) {
+                    sum += row[i];
+                    count++;
+                }
+                pixels[y * width + x] = sum / count;
+            }
+        }
+    }
+
+    enum Distortion {
+        CLEAN,
+        BLUR,
+        NOISE,
+        ROTATION
+    }
+
+}
@@ -0,0 +1,244 @@
+package com.acker.simplezxing.core;
+
+import com.acker.simplezxing.core.BinarizerStatistics.Strategy;
+import com.google.zxing.Binarizer;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.common.GlobalHistogramBinarizer;
+import com.google.zxing.common.HybridBinarizer;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Chooses how to binarize a frame. {@link HybridBinarizer} is always the last resort, but large
+ * frames whose luminance is spread widely, which is what a well lit, high contrast code looks like,
+ * are first tried with the much cheaper {@link GlobalHistogramBinarizer}.
+ * <p>
+ * The frame statistics come from a sparse sample of rows, so choosing costs next to nothing.
+ * Not thread safe: meant to be owned by one decode thread.
+ */
+final class BinarizerSelector {
+
+    private static final int LUMINANCE_BITS = 3;
+    private static final int LUMINANCE_BUCKETS = 256 >> LUMINANCE_BITS;
+    private static final int SAMPLE_ROWS = 16;
+    private static final int SAMPLE_STEP = 4;
+    /**
+     * Below this, HybridBinarizer is cheap enough anyway.
+     */
+    private static final int LARGE_FRAME_PIXELS = 640 * 480;
+    /**
+     * Distance between the 5th and the 95th percentile of the sampled luminance.
+     */
+    private static final int HIGH_CONTRAST_SPREAD = 150;
+
+    private final boolean adaptive;
+    private final int[] buckets;
+    private byte[] row;
+
+    /**
+     * @param adaptive Whether to try the cheap binarizer first on suitable frames; if not, frames
+     *                 are always binarized with HybridBinarizer.
+     */
+    BinarizerSelector(boolean adaptive) {
+        this.adaptive = adaptive;
+        buckets = new int[LUMINANCE_BUCKETS];
+    }
+
+    /**
+     * @return Whether the frame should be tried with {@link Strategy#GLOBAL_HISTOGRAM} before
+     * {@link Strategy#HYBRID}.
+     */
+    boolean shouldTryGlobalHistogramFirst(LuminanceSource source) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        if (!adaptive || width * height < LARGE_FRAME_PIXELS) {
+            return false;
+        }
+        int[] localBuckets = buckets;
+        for (int i = 0; i < LUMINANCE_BUCKETS; i++) {
+            localBuckets[i] = 0;
+        }
+        int samples = 0;
+        for (int i = 1; i <= SAMPLE_ROWS; i++) {
+            row = source.getRow(height * i / (SAMPLE_ROWS + 1), row);
+            byte[] localRow = row;
+            for (int x = 0; x < width; x += SAMPLE_STEP) {
+                localBuckets[(localRow[x] & 0xff) >> LUMINANCE_BITS]++;
+                samples++;
+            }
+        }
+        int low = percentileBucket(samples / 20);
+        int high = percentileBucket(samples - samples / 20);
+        return (high - low) << LUMINANCE_BITS >= HIGH_CONTRAST_SPREAD;
+    }
+
+    private int percentileBucket(int rank) {
+        int count = 0;
+        for (int i = 0; i < LUMINANCE_BUCKETS; i++) {
+            count += buckets[i];
+            if (count >= rank) {
+                return i;
+            }
+        }
+        return LUMINANCE_BUCKETS - 1;
+    }
+
+    /**
+     * Decodes the frame, with the cheap binarizer first if asked to and then with HybridBinarizer,
+     * recording each attempt in {@link BinarizerStatistics}.
+     *
+     * @param readsMatrix Whether the reader asks for the whole binarized frame, rather than only
+     *                    binarizing the rows it reads, which is the case unless all formats are 1D.
+     * @param metrics     Where to time binarizing and decoding, may be null.
+     */
+    static Result decode(MultiFormatReader reader, LuminanceSource source, boolean globalHistogramFirst,
+                         boolean readsMatrix, DecodeMetrics metrics) {
+        Result result = null;
+        if (globalHistogramFirst) {
+            result = decode(reader, new GlobalHistogramBinarizer(source), Strategy.GLOBAL_HISTOGRAM, readsMatrix,
+                    metrics);
+        }
+        if (result == null) {
+            result = decode(reader, new HybridBinarizer(source), Strategy.HYBRID, readsMatrix, metrics);
+        }
+        return result;
+    }
+
+    /**
+     * Like {@link #decode(MultiFormatReader, LuminanceSource, boolean, boolean, DecodeMetrics)}, for
+     * a reader of the whole binarized frame, which it takes from the bitmaps shared with the readers
+     * of the other format families rather than binarizing it again.
+     *
+     * @param metrics Where to time decoding, may be null; binarizing is timed by the bitmaps.
+     */
+    static Result decode(MultiFormatReader reader, SharedBitmaps bitmaps, boolean globalHistogramFirst,
+                         DecodeMetrics metrics) {
+        Result result = null;
+        if (globalHistogramFirst) {
+            result = decode(reader, bitmaps, Strategy.GLOBAL_HISTOGRAM, metrics);
+        }
+        if (result == null) {
+            result = decode(reader, bitmaps, Strategy.HYBRID, metrics);
+        }
+        return result;
+    }
+
+    private static Result decode(MultiFormatReader reader, SharedBitmaps bitmaps, Strategy strategy,
+                                 DecodeMetrics metrics) {
+        long start = System.nanoTime();
+        long decodeStart = start;
+        Result result = null;
+        try {
+            BinaryBitmap bitmap = bitmaps.get(strategy);
+            decodeStart = System.nanoTime();
+            if (bitmap != null) {
+                result = reader.decodeWithState(bitmap);
+            }
+        } catch (ReaderException re) {
+            // continue
+        } finally {
+            reader.reset();
+        }
+        long end = System.nanoTime();
+        BinarizerStatistics.record(strategy, end - start, result != null);
+        if (metrics != null) {
+            metrics.recordStage(DecodeMetrics.Stage.DECODE, end - decodeStart);
+        }
+        return result;
+    }
+
+    /**
+     * When timed, a reader wanting the whole frame has it binarized up front, which {@link BinaryBitmap}
+     * keeps for the reader to pick up, so binarizing is timed apart from decoding without wrapping the
+     * binarizer. Rows binarized as they are read cannot be told apart from reading them, and are
+     * counted as decoding.
+     */
+    private static Result decode(MultiFormatReader reader, Binarizer binarizer, Strategy strategy,
+                                 boolean readsMatrix, DecodeMetrics metrics) {
+        long start = System.nanoTime();
+        long binarizeNanos = 0L;
+        Result result = null;
+        try {
+            BinaryBitmap bitmap = new BinaryBitmap(binarizer);
+            if (metrics != null && readsMatrix) {
+                try {
+                    bitmap.getBlackMatrix();
+                } finally {
+                    binarizeNanos = System.nanoTime() - start;
+                }
+            }
+            result = reader.decodeWithState(bitmap);
+        } catch (ReaderException re) {
+            // continue
+        } finally {
+            reader.reset();
+        }
+        long nanos = System.nanoTime() - start;
+        BinarizerStatistics.record(strategy, nanos, result != null);
+        if (metrics != null) {
+            if (readsMatrix) {
+                metrics.recordStage(DecodeMetrics.Stage.BINARIZE, binarizeNanos);
+            }
+            metrics.recordStage(DecodeMetrics.Stage.DECODE, nanos - binarizeNanos);
+        }
+        return result;
+    }
+
+    /**
+     * The frame binarized with each strategy, by whichever reader asks for it first, then shared by
+     * all readers of the whole matrix: they only ever read it, and PDF417 rotates a copy. The 1D
+     * reader binarizes rows as it reads them, with buffers of the binarizer's own, so it does not
+     * share. Thread safe.
+     */
+    static final class SharedBitmaps {
+
+        private final LuminanceSource source;
+        private final DecodeMetrics metrics;
+        /**
+         * A null bitmap for a strategy which found nothing to binarize.
+         */
+        private final Map<Strategy, BinaryBitmap> bitmaps;
+
+        /**
+         * @param metrics Where to time binarizing, may be null.
+         */
+        SharedBitmaps(LuminanceSource source, DecodeMetrics metrics) {
+            this.source = source;
+            this.metrics = metrics;
+            bitmaps = new EnumMap<>(Strategy.class);
+        }
+
+        /**
+         * @return The whole frame binarized with the strategy, or null if it has nothing to read.
+         * Readers asking at the same time wait for the first one to binarize it.
+         */
+        synchronized BinaryBitmap get(Strategy strategy) {
+            if (bitmaps.containsKey(strategy)) {
+                return bitmaps.get(strategy);
+            }
+            long start = System.nanoTime();
+            BinaryBitmap bitmap = new BinaryBitmap(strategy == Strategy.GLOBAL_HISTOGRAM
+                    ? new GlobalHistogramBinarizer(source)
+                    : new HybridBinarizer(source));
+            try {
+                // Kept by the bitmap for every reader to pick up
+                bitmap.getBlackMatrix();
+            } catch (NotFoundException nfe) {
+                bitmap = null;
+            }
+            if (metrics != null) {
+                metrics.recordStage(DecodeMetrics.Stage.BINARIZE, System.nanoTime() - start);
+            }
+            bitmaps.put(strategy, bitmap);
+            return bitmap;
+        }
+
+    }
+
+}
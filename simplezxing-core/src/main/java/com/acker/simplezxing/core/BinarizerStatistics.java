@@ -0,0 +1,80 @@
+package com.acker.simplezxing.core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Process wide counters of how often, how fast and how successfully each binarization strategy has
+ * decoded frames, so the choice made by {@link BinarizerSelector} can be checked in the field.
+ * Every decode attempt is counted, including those of the individual format families when they are
+ * decoded in parallel.
+ */
+public final class BinarizerStatistics {
+
+    private static final int STRATEGY_COUNT = Strategy.values().length;
+    private static final AtomicLongArray attempts = new AtomicLongArray(STRATEGY_COUNT);
+    private static final AtomicLongArray hits = new AtomicLongArray(STRATEGY_COUNT);
+    private static final AtomicLongArray nanos = new AtomicLongArray(STRATEGY_COUNT);
+
+    private BinarizerStatistics() {
+    }
+
+    static void record(Strategy strategy, long elapsedNanos, boolean hit) {
+        int index = strategy.ordinal();
+        attempts.incrementAndGet(index);
+        nanos.addAndGet(index, elapsedNanos);
+        if (hit) {
+            hits.incrementAndGet(index);
+        }
+    }
+
+    /**
+     * @return How many frames were decoded with the strategy.
+     */
+    public static long getAttempts(Strategy strategy) {
+        return attempts.get(strategy.ordinal());
+    }
+
+    /**
+     * @return How many of those attempts found a barcode.
+     */
+    public static long getHits(Strategy strategy) {
+        return hits.get(strategy.ordinal());
+    }
+
+    /**
+     * @return Share of attempts which found a barcode, from 0 to 1.
+     */
+    public static float getHitRate(Strategy strategy) {
+        long attemptCount = getAttempts(strategy);
+        return attemptCount == 0L ? 0.0f : getHits(strategy) / (float) attemptCount;
+    }
+
+    /**
+     * @return Mean time of an attempt, binarization and decoding together, in milliseconds.
+     */
+    public static float getAverageMillis(Strategy strategy) {
+        long attemptCount = getAttempts(strategy);
+        return attemptCount == 0L ? 0.0f : nanos.get(strategy.ordinal()) / (attemptCount * 1000000.0f);
+    }
+
+    public static void reset() {
+        for (int i = 0; i < STRATEGY_COUNT; i++) {
+            attempts.set(i, 0L);
+            hits.set(i, 0L);
+            nanos.set(i, 0L);
+        }
+    }
+
+    public enum Strategy {
+        /**
+         * {@link com.google.zxing.common.HybridBinarizer}: local thresholds, robust but expensive.
+         */
+        HYBRID,
+        /**
+         * {@link com.google.zxing.common.GlobalHistogramBinarizer}: one threshold, cheap, good enough
+         * for well lit, high contrast codes.
+         */
+        GLOBAL_HISTOGRAM
+    }
+
+}
@@ -0,0 +1,118 @@
+package com.acker.simplezxing.core;
+
+import com.google.zxing.ResultPoint;
+import com.google.zxing.ResultPointCallback;
+
+/**
+ * Sits between the readers of one decode thread and the viewfinder. Points found on a downsampled
+ * source are scaled back up, and points found on a region of the scan area are moved by its offset,
+ * before they are passed on. Any point at all is remembered as a sign that a barcode candidate was
+ * seen, which is what makes a failed downsampled attempt worth repeating at full resolution. This is
+ * the only such sign there is: {@link com.google.zxing.MultiFormatReader} reports every failure,
+ * located or not, as a {@link com.google.zxing.NotFoundException}. Where the points of a frame lie
+ * is remembered too, for a {@link RegionOfInterestTracker}.
+ * <p>
+ * Readers of all format families may report points at the same time.
+ */
+final class CandidateResultPointCallback implements ResultPointCallback {
+
+    private final ResultPointCallback delegate;
+    private volatile int scale = 1;
+    private volatile int offsetX;
+    private volatile int offsetY;
+    private volatile boolean candidateFound;
+    private volatile boolean frameCandidateFound;
+    /**
+     * The bounds of the points of the frame, in the coordinates of the scan area; guarded by this.
+     */
+    private boolean boundsFound;
+    private float minX;
+    private float minY;
+    private float maxX;
+    private float maxY;
+
+    /**
+     * @param delegate Where to pass the points on to, may be null.
+     */
+    CandidateResultPointCallback(ResultPointCallback delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Starts a new frame.
+     *
+     * @param offsetX Where the source of the frame lies within the scan area.
+     */
+    synchronized void startFrame(int offsetX, int offsetY) {
+        this.offsetX = offsetX;
+        this.offsetY = offsetY;
+        boundsFound = false;
+        frameCandidateFound = false;
+    }
+
+    /**
+     * Starts a new attempt.
+     *
+     * @param scale By how much the source of the attempt was scaled down.
+     */
+    void reset(int scale) {
+        this.scale = scale;
+        candidateFound = false;
+    }
+
+    boolean isCandidateFound() {
+        return candidateFound;
+    }
+
+    /**
+     * @return Whether any attempt on the frame found a candidate.
+     */
+    boolean isFrameCandidateFound() {
+        return frameCandidateFound;
+    }
+
+    /**
+     * Counts a point, in the coordinates of the scan area, as part of the frame's candidates.
+     */
+    synchronized void include(float x, float y) {
+        if (!boundsFound) {
+            minX = maxX = x;
+            minY = maxY = y;
+            boundsFound = true;
+            return;
+        }
+        minX = Math.min(minX, x);
+        minY = Math.min(minY, y);
+        maxX = Math.max(maxX, x);
+        maxY = Math.max(maxY, y);
+    }
+
+    /**
+     * Tells the tracker where the candidates of the frame were, if anywhere.
+     */
+    synchronized void reportTo(RegionOfInterestTracker tracker, ScanArea scanArea) {
+        if (boundsFound) {
+            tracker.found(scanArea, minX, minY, maxX, maxY);
+        } else {
+            tracker.missed(scanArea);
+        }
+    }
+
+    @Override
+    public void foundPossibleResultPoint(ResultPoint point) {
+        candidateFound = true;
+        frameCandidateFound = true;
+        int localScale = scale;
+        int localOffsetX = offsetX;
+        int localOffsetY = offsetY;
+        if (localScale != 1 || localOffsetX != 0 || localOffsetY != 0) {
+            point = new ResultPoint(point.getX() * localScale + localOffsetX,
+                    point.getY() * localScale + localOffsetY);
+        }
+        include(point.getX(), point.getY());
+        if (delegate != null) {
+            delegate.foundPossibleResultPoint(point);
+        }
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2009 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.acker.simplezxing.core;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds several barcodes in an image the way ZXing's GenericMultipleBarcodeReader does: once a
+ * barcode is found, the regions to its left, above, to its right and below are searched in turn,
+ * recursively. Unlike it, the number of regions searched is capped, since each one is binarized
+ * and read afresh and a busy label could otherwise take seconds.
+ * <p>
+ * Not thread safe: meant to be owned by one decode thread, like its reader.
+ */
+final class CappedMultipleBarcodeReader {
+
+    private static final int MIN_DIMENSION_TO_RECUR = 100;
+    private static final int MAX_DEPTH = 4;
+
+    private final MultiFormatReader reader;
+    private int regionsLeft;
+
+    /**
+     * @param reader Reads each region, with its hints already set.
+     */
+    CappedMultipleBarcodeReader(MultiFormatReader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * @param maxRegions How many regions to search at most, the whole image being the first.
+     * @return Every distinct barcode found, with its points in the coordinates of the image; empty
+     * if none was.
+     */
+    List<Result> decodeMultiple(BinaryBitmap image, int maxRegions) {
+        List<Result> results = new ArrayList<>();
+        regionsLeft = maxRegions;
+        doDecodeMultiple(image, results, 0, 0, 0);
+        return results;
+    }
+
+    private void doDecodeMultiple(BinaryBitmap image, List<Result> results, int xOffset, int yOffset,
+                                  int currentDepth) {
+        if (currentDepth > MAX_DEPTH || regionsLeft <= 0) {
+            return;
+        }
+        regionsLeft--;
+        Result result;
+        try {
+            result = reader.decodeWithState(image);
+        } catch (ReaderException re) {
+            return;
+        } finally {
+            reader.reset();
+        }
+        boolean alreadyFound = false;
+        for (Result existingResult : results) {
+            if (existingResult.getText().equals(result.getText())
+                    && existingResult.getBarcodeFormat() == result.getBarcodeFormat()) {
+                alreadyFound = true;
+                break;
+            }
+        }
+        if (!alreadyFound) {
+            results.add(translateResultPoints(result, xOffset, yOffset));
+        }
+        ResultPoint[] resultPoints = result.getResultPoints();
+        if (resultPoints == null || resultPoints.length == 0) {
+            return;
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        float minX = width;
+        float minY = height;
+        float maxX = 0.0f;
+        float maxY = 0.0f;
+        for (ResultPoint point : resultPoints) {
+            if (point == null) {
+                continue;
+            }
+            float x = point.getX();
+            float y = point.getY();
+            if (x < minX) {
+                minX = x;
+            }
+            if (y < minY) {
+                minY = y;
+            }
+            if (x > maxX) {
+                maxX = x;
+            }
+            if (y > maxY) {
+                maxY = y;
+            }
+        }
+
+        // Decode left of barcode
+        if (minX > MIN_DIMENSION_TO_RECUR) {
+            doDecodeMultiple(image.crop(0, 0, (int) minX, height), results,
+                    xOffset, yOffset, currentDepth + 1);
+        }
+        // Decode above barcode
+        if (minY > MIN_DIMENSION_TO_RECUR) {
+            doDecodeMultiple(image.crop(0, 0, width, (int) minY), results,
+                    xOffset, yOffset, currentDepth + 1);
+        }
+        // Decode right of barcode
+        if (maxX < width - MIN_DIMENSION_TO_RECUR) {
+            doDecodeMultiple(image.crop((int) maxX, 0, width - (int) maxX, height), results,
+                    xOffset + (int) maxX, yOffset, currentDepth + 1);
+        }
+        // Decode below barcode
+        if (maxY < height - MIN_DIMENSION_TO_RECUR) {
+            doDecodeMultiple(image.crop(0, (int) maxY, width, height - (int) maxY), results,
+                    xOffset, yOffset + (int) maxY, currentDepth + 1);
+        }
+    }
+
+    private static Result translateResultPoints(Result result, int xOffset, int yOffset) {
+        ResultPoint[] oldResultPoints = result.getResultPoints();
+        if (oldResultPoints == null || (xOffset == 0 && yOffset == 0)) {
+            return result;
+        }
+        ResultPoint[] newResultPoints = new ResultPoint[oldResultPoints.length];
+        for (int i = 0; i < oldResultPoints.length; i++) {
+            ResultPoint oldPoint = oldResultPoints[i];
+            if (oldPoint != null) {
+                newResultPoints[i] = new ResultPoint(oldPoint.getX() + xOffset, oldPoint.getY() + yOffset);
+            }
+        }
+        Result newResult = new Result(result.getText(), result.getRawBytes(), result.getNumBits(),
+                newResultPoints, result.getBarcodeFormat(), result.getTimestamp());
+        newResult.putAllMetadata(result.getResultMetadata());
+        return newResult;
+    }
+
+}
@@ -1,4 +1,4 @@
-package com.acker.simplezxing.decode;
+package com.acker.simplezxing.core;
 /*
  * Copyright (C) 2010 ZXing authors
  *
@@ -18,7 +18,10 @@ package com.acker.simplezxing.decode;
 
 import com.google.zxing.BarcodeFormat;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -43,6 +46,28 @@ final class DecodeFormatManager {
     static final Set<BarcodeFormat> DATA_MATRIX_FORMATS = EnumSet.of(BarcodeFormat.DATA_MATRIX);
     static final Set<BarcodeFormat> AZTEC_FORMATS = EnumSet.of(BarcodeFormat.AZTEC);
     static final Set<BarcodeFormat> PDF417_FORMATS = EnumSet.of(BarcodeFormat.PDF_417);
+    /**
+     * Formats read row by row rather than from the whole binarized frame.
+     */
+    static final Set<BarcodeFormat> ONE_D_FORMATS;
+    /**
+     * Formats which are cheap to try together, because their readers share a detector or the
+     * 1D row scanning.
+     */
+    static final List<Set<BarcodeFormat>> FORMAT_FAMILIES;
+
+    static {
+        Set<BarcodeFormat> oneDFormats = EnumSet.copyOf(PRODUCT_FORMATS);
+        oneDFormats.addAll(INDUSTRIAL_FORMATS);
+        ONE_D_FORMATS = Collections.unmodifiableSet(oneDFormats);
+        List<Set<BarcodeFormat>> families = new ArrayList<>(5);
+        families.add(QR_CODE_FORMATS);
+        families.add(ONE_D_FORMATS);
+        families.add(DATA_MATRIX_FORMATS);
+        families.add(AZTEC_FORMATS);
+        families.add(PDF417_FORMATS);
+        FORMAT_FAMILIES = Collections.unmodifiableList(families);
+    }
 
     private DecodeFormatManager() {
     }
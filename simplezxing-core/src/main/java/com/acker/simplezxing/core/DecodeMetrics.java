@@ -0,0 +1,357 @@
+package com.acker.simplezxing.core;
+
+import com.google.zxing.BarcodeFormat;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Where the time of one scan session goes: how long each phase of starting it took, when its
+ * milestones were reached, how long each stage of the decode path took, what became of the frames,
+ * and why and how long the camera focused.
+ * <p>
+ * Recording is lock-free and allocation-free, so any thread may record at any time without
+ * disturbing what is measured. Stage times are kept in histograms with power of two buckets of
+ * microseconds. Reading while recording goes on is safe, but what is read may be a few frames apart
+ * from one number to the next.
+ */
+public final class DecodeMetrics {
+
+    /**
+     * The stages of decoding a frame, and focusing the camera.
+     */
+    public enum Stage {
+        /**
+         * Viewing the scan area upright, once per frame. When only 1D formats are tried without the
+         * pyramid, rows are rotated as the readers ask for them and counted as {@link #DECODE}.
+         */
+        ROTATE,
+        /**
+         * Binarizing the whole frame, once per binarizer tried. Not recorded when only 1D formats are
+         * tried, since those binarize just the rows they read, as they read them.
+         */
+        BINARIZE,
+        /**
+         * Running the readers, once per binarizer tried, with any rows they binarize themselves.
+         */
+        DECODE,
+        /**
+         * The whole of decoding a frame.
+         */
+        FRAME,
+        /**
+         * From asking the camera to focus until it reported back, once per {@link FocusTrigger}.
+         * Runs alongside decoding rather than as part of it.
+         */
+        FOCUS
+    }
+
+    /**
+     * What became of the frames.
+     */
+    public enum Counter {
+        /**
+         * Asked of the camera.
+         */
+        REQUESTED,
+        /**
+         * Decoded into a barcode.
+         */
+        DECODED,
+        /**
+         * Decoded, but no barcode found.
+         */
+        FAILED,
+        /**
+         * Not decoded at all: rejected by the {@link FrameQualityGate}, scan area out of the frame,
+         * or arrived after the scan was over.
+         */
+        DROPPED
+    }
+
+    /**
+     * The steps of starting a session, most of which run at the same time.
+     */
+    public enum Phase {
+        /**
+         * Opening and configuring the camera.
+         */
+        CAMERA_OPEN,
+        /**
+         * Waiting for the preview surface, from the start of the session.
+         */
+        SURFACE,
+        /**
+         * Starting the preview, once both the camera and the surface were ready.
+         */
+        PREVIEW,
+        /**
+         * Loading the beep.
+         */
+        SOUND,
+        /**
+         * Building the decoders and starting their threads.
+         */
+        DECODER
+    }
+
+    /**
+     * Why the camera was asked to focus.
+     */
+    public enum FocusTrigger {
+        /**
+         * The preview started, or the torch was switched.
+         */
+        START,
+        /**
+         * The {@link FrameQualityGate} found a frame blurred.
+         */
+        BLURRED,
+        /**
+         * The readers kept locating something that looked like a barcode without decoding it.
+         */
+        CANDIDATES,
+        /**
+         * Frames kept failing without anything located, and without the gate finding them sharp.
+         */
+        FAILURE_STREAK,
+        /**
+         * Nothing was found in focus for a while, and none of the above said so sooner.
+         */
+        FALLBACK
+    }
+
+    /**
+     * Points in the session, timed from when it started.
+     */
+    public enum Milestone {
+        CAMERA_OPENED,
+        FIRST_FRAME,
+        /**
+         * The first barcode found.
+         */
+        FIRST_DECODE
+    }
+
+    /**
+     * Told about each session once it is over.
+     */
+    public interface Listener {
+
+        void onSessionFinished(DecodeMetrics metrics);
+
+    }
+
+    /**
+     * Bucket i holds times from 2^i up to 2^(i+1) microseconds, except that the first one also holds
+     * anything shorter and the last one anything longer.
+     */
+    public static final int BUCKET_COUNT = 24;
+
+    private static final int STAGE_COUNT = Stage.values().length;
+    private static final int NOT_REACHED = -1;
+
+    private final long startNanos;
+    private final AtomicLongArray histograms;
+    private final AtomicLongArray stageNanos;
+    private final AtomicLongArray counters;
+    private final AtomicLongArray phaseNanos;
+    private final AtomicLongArray milestoneNanos;
+    private final AtomicLongArray formatCounts;
+    private final AtomicLongArray focusTriggerCounts;
+    private volatile BarcodeFormat winningFormat;
+
+    /**
+     * Starts a session now.
+     */
+    public DecodeMetrics() {
+        startNanos = System.nanoTime();
+        histograms = new AtomicLongArray(STAGE_COUNT * BUCKET_COUNT);
+        stageNanos = new AtomicLongArray(STAGE_COUNT);
+        counters = new AtomicLongArray(Counter.values().length);
+        phaseNanos = new AtomicLongArray(Phase.values().length);
+        for (int i = 0; i < phaseNanos.length(); i++) {
+            phaseNanos.set(i, NOT_REACHED);
+        }
+        milestoneNanos = new AtomicLongArray(Milestone.values().length);
+        for (int i = 0; i < milestoneNanos.length(); i++) {
+            milestoneNanos.set(i, NOT_REACHED);
+        }
+        formatCounts = new AtomicLongArray(BarcodeFormat.values().length);
+        focusTriggerCounts = new AtomicLongArray(FocusTrigger.values().length);
+    }
+
+    public void recordStage(Stage stage, long nanos) {
+        histograms.incrementAndGet(stage.ordinal() * BUCKET_COUNT + getBucket(nanos));
+        stageNanos.addAndGet(stage.ordinal(), nanos);
+    }
+
+    public void increment(Counter counter) {
+        counters.incrementAndGet(counter.ordinal());
+    }
+
+    /**
+     * Records how long the phase took, unless it was recorded before.
+     */
+    public void recordPhase(Phase phase, long nanos) {
+        phaseNanos.compareAndSet(phase.ordinal(), NOT_REACHED, nanos);
+    }
+
+    /**
+     * Records the phase as having taken from the start of the session until now, unless it was
+     * recorded before.
+     */
+    public void recordPhaseSinceStart(Phase phase) {
+        recordPhase(phase, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Marks the milestone as reached now, unless it was reached before.
+     */
+    public void reach(Milestone milestone) {
+        milestoneNanos.compareAndSet(milestone.ordinal(), NOT_REACHED, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Counts a frame decoded into a barcode of the given format.
+     */
+    public void recordDecoded(BarcodeFormat format) {
+        counters.incrementAndGet(Counter.DECODED.ordinal());
+        formatCounts.incrementAndGet(format.ordinal());
+        winningFormat = format;
+        reach(Milestone.FIRST_DECODE);
+    }
+
+    /**
+     * Counts the camera being asked to focus for the given reason. How long it took is recorded as
+     * {@link Stage#FOCUS} once it reports back.
+     */
+    public void recordFocusTrigger(FocusTrigger trigger) {
+        focusTriggerCounts.incrementAndGet(trigger.ordinal());
+    }
+
+    public long getCount(Counter counter) {
+        return counters.get(counter.ordinal());
+    }
+
+    /**
+     * @return How long the phase took, or -1 if it did not finish.
+     */
+    public long getPhaseMillis(Phase phase) {
+        long nanos = phaseNanos.get(phase.ordinal());
+        return nanos == NOT_REACHED ? NOT_REACHED : nanos / 1000000L;
+    }
+
+    /**
+     * @return How long after the session started the milestone was reached, or -1 if it was not.
+     */
+    public long getMilestoneMillis(Milestone milestone) {
+        long nanos = milestoneNanos.get(milestone.ordinal());
+        return nanos == NOT_REACHED ? NOT_REACHED : nanos / 1000000L;
+    }
+
+    /**
+     * @return The format of the last barcode found, or null if none was.
+     */
+    public BarcodeFormat getWinningFormat() {
+        return winningFormat;
+    }
+
+    /**
+     * @return How many barcodes of the format were found.
+     */
+    public long getFormatCount(BarcodeFormat format) {
+        return formatCounts.get(format.ordinal());
+    }
+
+    /**
+     * @return How many times the camera was asked to focus for the reason.
+     */
+    public long getFocusTriggerCount(FocusTrigger trigger) {
+        return focusTriggerCounts.get(trigger.ordinal());
+    }
+
+    /**
+     * @return How many times the stage was timed.
+     */
+    public long getStageCount(Stage stage) {
+        long count = 0L;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += histograms.get(stage.ordinal() * BUCKET_COUNT + i);
+        }
+        return count;
+    }
+
+    /**
+     * @return A copy of the stage's histogram, see {@link #BUCKET_COUNT}.
+     */
+    public long[] getHistogram(Stage stage) {
+        long[] histogram = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            histogram[i] = histograms.get(stage.ordinal() * BUCKET_COUNT + i);
+        }
+        return histogram;
+    }
+
+    public double getAverageMillis(Stage stage) {
+        long count = getStageCount(stage);
+        return count == 0L ? 0.0 : stageNanos.get(stage.ordinal()) / 1000000.0 / count;
+    }
+
+    /**
+     * @param percentile From 0 to 100.
+     * @return The time the given share of the stage's timings were within, rounded up to the end of
+     * its bucket; 0 if the stage was never timed.
+     */
+    public double getPercentileMillis(Stage stage, double percentile) {
+        long[] histogram = getHistogram(stage);
+        long count = 0L;
+        for (long bucketCount : histogram) {
+            count += bucketCount;
+        }
+        if (count == 0L) {
+            return 0.0;
+        }
+        long rank = (long) Math.ceil(count * percentile / 100.0);
+        long seen = 0L;
+        int bucket = 0;
+        for (; bucket < BUCKET_COUNT - 1; bucket++) {
+            seen += histogram[bucket];
+            if (seen >= rank) {
+                break;
+            }
+        }
+        return (1L << (bucket + 1)) / 1000.0;
+    }
+
+    private static int getBucket(long nanos) {
+        long micros = nanos / 1000L;
+        if (micros <= 1L) {
+            return 0;
+        }
+        // floor(log2(micros))
+        return Math.min(BUCKET_COUNT - 1, 63 - Long.numberOfLeadingZeros(micros));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("DecodeMetrics(");
+        for (Phase phase : Phase.values()) {
+            builder.append(phase).append(' ').append(getPhaseMillis(phase)).append(" ms, ");
+        }
+        for (Milestone milestone : Milestone.values()) {
+            builder.append(milestone).append(' ').append(getMilestoneMillis(milestone)).append(" ms, ");
+        }
+        for (Counter counter : Counter.values()) {
+            builder.append(counter).append(' ').append(getCount(counter)).append(", ");
+        }
+        for (FocusTrigger trigger : FocusTrigger.values()) {
+            builder.append("focus ").append(trigger).append(' ').append(getFocusTriggerCount(trigger)).append(", ");
+        }
+        for (Stage stage : Stage.values()) {
+            builder.append(stage).append(" p50 ").append(getPercentileMillis(stage, 50.0))
+                    .append(" p95 ").append(getPercentileMillis(stage, 95.0)).append(" ms, ");
+        }
+        return builder.append("winning format ").append(winningFormat).append(')').toString();
+    }
+
+}
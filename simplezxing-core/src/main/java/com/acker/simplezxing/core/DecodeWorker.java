@@ -0,0 +1,253 @@
+package com.acker.simplezxing.core;
+
+import com.google.zxing.Result;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The work of one decode thread: takes the frames it asked a {@link FrameSource} for, decodes them
+ * with its own {@link FrameDecoder} and tells its {@link Host} what it found. Every frame goes back
+ * to the source exactly once, whether it was decoded, dropped while decoding is paused, or still
+ * waiting for the thread when the worker quit.
+ * <p>
+ * Frames arrive on the source's thread and are decoded on the worker's; {@link #quit()} may be called
+ * on any thread.
+ */
+public final class DecodeWorker implements FrameSource.Consumer {
+
+    private final FrameSource frameSource;
+    private final FrameDecoder frameDecoder;
+    private final Executor thread;
+    private final Host host;
+    private final FrameRecorder frameRecorder;
+    private final DuplicateResultFilter duplicateResultFilter;
+    private final int maxSearchRegions;
+    private final DecodeMetrics metrics;
+    /**
+     * Frames handed to {@link #thread} and not yet picked up there.
+     */
+    private final Set<Frame> waitingFrames;
+    private boolean quit;
+
+    /**
+     * @param thread                Runs the decoding of each frame, in the order they arrived, on
+     *                              the worker's thread; rejects frames once that thread is gone.
+     * @param frameRecorder         Records every frame before it is decoded, may be null.
+     * @param duplicateResultFilter Keeps codes seen just before from being reported, may be null to
+     *                              report every result.
+     * @param maxSearchRegions      How many regions of each frame are searched for several barcodes,
+     *                              or 0 to stop at the first barcode.
+     * @param metrics               Where to count the frames dropped, may be null.
+     */
+    public DecodeWorker(FrameSource frameSource,
+                        FrameDecoder frameDecoder,
+                        Executor thread,
+                        Host host,
+                        FrameRecorder frameRecorder,
+                        DuplicateResultFilter duplicateResultFilter,
+                        int maxSearchRegions,
+                        DecodeMetrics metrics) {
+        this.frameSource = frameSource;
+        this.frameDecoder = frameDecoder;
+        this.thread = thread;
+        this.host = host;
+        this.frameRecorder = frameRecorder;
+        this.duplicateResultFilter = duplicateResultFilter;
+        this.maxSearchRegions = maxSearchRegions;
+        this.metrics = metrics;
+        waitingFrames = Collections.newSetFromMap(new IdentityHashMap<Frame, Boolean>());
+    }
+
+    /**
+     * Takes the frame asked for on the source's thread, to be decoded on the worker's.
+     */
+    @Override
+    public void onFrame(final Frame frame) {
+        boolean dropped;
+        synchronized (this) {
+            dropped = quit;
+            if (!dropped) {
+                waitingFrames.add(frame);
+            }
+        }
+        if (dropped) {
+            count(DecodeMetrics.Counter.DROPPED);
+            frameSource.releaseFrame(frame);
+            return;
+        }
+        try {
+            thread.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (take(frame)) {
+                        decode(frame);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            // The thread is gone
+            if (take(frame)) {
+                count(DecodeMetrics.Counter.DROPPED);
+                frameSource.releaseFrame(frame);
+            }
+        }
+    }
+
+    /**
+     * Gives back the frames still waiting for the thread, and every frame which arrives from now on,
+     * without decoding them. A frame being decoded is given back once it is done.
+     */
+    public void quit() {
+        List<Frame> frames;
+        synchronized (this) {
+            quit = true;
+            frames = new ArrayList<>(waitingFrames);
+            waitingFrames.clear();
+        }
+        for (Frame frame : frames) {
+            count(DecodeMetrics.Counter.DROPPED);
+            frameSource.releaseFrame(frame);
+        }
+    }
+
+    /**
+     * @return Whether the frame was still waiting, and is now the caller's to give back; if not,
+     * {@link #quit()} gave it back already.
+     */
+    private synchronized boolean take(Frame frame) {
+        return waitingFrames.remove(frame);
+    }
+
+    /**
+     * Decodes the scan area of the frame, then gives the frame back.
+     *
+     * @param frame The preview frame, as the camera delivered it.
+     */
+    private void decode(Frame frame) {
+        if (metrics != null) {
+            metrics.reach(DecodeMetrics.Milestone.FIRST_FRAME);
+        }
+        if (!host.isDecoding()) {
+            // Another worker already found the barcode
+            count(DecodeMetrics.Counter.DROPPED);
+            frameSource.releaseFrame(frame);
+            return;
+        }
+        Result rawResult = null;
+        ArrayList<DecodedBarcode> barcodes = null;
+        ScanArea scanArea = host.getScanArea(frame.getDisplayWidth(), frame.getDisplayHeight());
+        if (scanArea != null) {
+            if (frameRecorder != null) {
+                // Copied off to be written in the background, or dropped if the disk falls behind
+                frameRecorder.record(frame, scanArea, frame.getTimestampNanos());
+            }
+            if (maxSearchRegions > 0) {
+                barcodes = decodeMultiple(frame, scanArea);
+            } else {
+                rawResult = frameDecoder.decode(frame, scanArea);
+                reportFocus(rawResult != null);
+                if (rawResult != null && isDuplicate(rawResult)) {
+                    // Seen just before; carry on as if nothing was found
+                    rawResult = null;
+                }
+            }
+        } else {
+            count(DecodeMetrics.Counter.DROPPED);
+        }
+        // Lost the race if no longer decoding, the result is no longer wanted
+        if (host.isDecoding()) {
+            if (rawResult != null) {
+                host.onDecoded(rawResult);
+            } else if (barcodes != null && !barcodes.isEmpty()) {
+                host.onDecodedMultiple(barcodes);
+            } else {
+                host.onDecodeFailed();
+            }
+        }
+        // Families which lost the race may still be reading the frame
+        frameDecoder.awaitIdle();
+        // The decoder only viewed the frame, so it can go back to the source now.
+        frameSource.releaseFrame(frame);
+    }
+
+    /**
+     * @return The barcodes found which were not seen just before, positioned in the frame.
+     */
+    private ArrayList<DecodedBarcode> decodeMultiple(Frame frame, ScanArea scanArea) {
+        List<Result> results = frameDecoder.decodeMultiple(frame, scanArea, maxSearchRegions);
+        reportFocus(!results.isEmpty());
+        ArrayList<DecodedBarcode> barcodes = new ArrayList<>(results.size());
+        for (Result result : results) {
+            if (!isDuplicate(result)) {
+                barcodes.add(DecodedBarcode.fromResult(result, scanArea));
+            }
+        }
+        return barcodes;
+    }
+
+    /**
+     * Tells the host whether the frame just decoded looked in focus. Duplicates count as decoded: the
+     * lens did its job.
+     */
+    private void reportFocus(boolean decoded) {
+        host.onFrameDecoded(decoded, frameDecoder.isLastCandidateFound(), frameDecoder.getLastVerdict());
+    }
+
+    private boolean isDuplicate(Result rawResult) {
+        return duplicateResultFilter != null
+                && duplicateResultFilter.isDuplicate(rawResult, TimeUnit.NANOSECONDS.toMillis(System.nanoTime()));
+    }
+
+    private void count(DecodeMetrics.Counter counter) {
+        if (metrics != null) {
+            metrics.increment(counter);
+        }
+    }
+
+    /**
+     * What a worker decodes for, called on the worker's thread.
+     */
+    public interface Host {
+
+        /**
+         * @return Whether results are wanted. While they are not, frames are given back undecoded,
+         * and results found meanwhile are not reported.
+         */
+        boolean isDecoding();
+
+        /**
+         * @return The part of a frame of the size as displayed to decode, or null if there is none.
+         */
+        ScanArea getScanArea(int displayWidth, int displayHeight);
+
+        /**
+         * Tells how decoding a frame went, so that the camera can focus as soon as the frames look
+         * out of focus.
+         *
+         * @see FrameDecoder#isLastCandidateFound()
+         * @see FrameDecoder#getLastVerdict()
+         */
+        void onFrameDecoded(boolean decoded, boolean candidateFound, FrameQualityGate.Verdict verdict);
+
+        void onDecoded(Result result);
+
+        /**
+         * @param barcodes Every barcode found which was not seen just before, never empty.
+         */
+        void onDecodedMultiple(ArrayList<DecodedBarcode> barcodes);
+
+        /**
+         * Called when a frame had nothing new to report, so that the worker can be handed another.
+         */
+        void onDecodeFailed();
+
+    }
+
+}
@@ -0,0 +1,91 @@
+package com.acker.simplezxing.core;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A barcode found in a frame, with where it was. Unlike ZXing's {@link Result} it is serializable,
+ * so it can be passed between activities. Immutable.
+ */
+public final class DecodedBarcode implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String text;
+    private final BarcodeFormat format;
+    private final float[] points;
+
+    /**
+     * @param points The x and y of each point, one after the other.
+     */
+    public DecodedBarcode(String text, BarcodeFormat format, float[] points) {
+        this.text = text;
+        this.format = format;
+        this.points = points.clone();
+    }
+
+    /**
+     * @param result   A result with its points in the coordinates of the scan area.
+     * @param scanArea The scan area it was found in.
+     * @return The barcode, with its points in the coordinates of the frame as displayed.
+     */
+    public static DecodedBarcode fromResult(Result result, ScanArea scanArea) {
+        ResultPoint[] resultPoints = result.getResultPoints();
+        int count = 0;
+        if (resultPoints != null) {
+            for (ResultPoint point : resultPoints) {
+                if (point != null) {
+                    count++;
+                }
+            }
+        }
+        float[] points = new float[count * 2];
+        int i = 0;
+        if (resultPoints != null) {
+            for (ResultPoint point : resultPoints) {
+                if (point != null) {
+                    points[i++] = point.getX() + scanArea.getLeft();
+                    points[i++] = point.getY() + scanArea.getTop();
+                }
+            }
+        }
+        return new DecodedBarcode(result.getText(), result.getBarcodeFormat(), points);
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public BarcodeFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @return The points ZXing located the barcode by (finder patterns, or the ends of a 1D row),
+     * in the coordinates of the frame as displayed: the x and y of each point, one after the other.
+     */
+    public float[] getPoints() {
+        return points.clone();
+    }
+
+    /**
+     * @return A ZXing result with the same text, format and points.
+     */
+    public Result toResult() {
+        ResultPoint[] resultPoints = new ResultPoint[points.length / 2];
+        for (int i = 0; i < resultPoints.length; i++) {
+            resultPoints[i] = new ResultPoint(points[2 * i], points[2 * i + 1]);
+        }
+        return new Result(text, null, resultPoints, format);
+    }
+
+    @Override
+    public String toString() {
+        return format + ": " + text + ' ' + Arrays.toString(points);
+    }
+
+}
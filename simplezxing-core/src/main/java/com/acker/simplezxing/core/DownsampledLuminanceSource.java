@@ -0,0 +1,133 @@
+package com.acker.simplezxing.core;
+
+import com.google.zxing.LuminanceSource;
+
+/**
+ * A {@link LuminanceSource} which is another source scaled down by an integer factor, each pixel
+ * being the mean of a factor x factor box of the original. Large codes survive this well and decode
+ * in a fraction of the time, see {@link #getFactor(int, int)}.
+ * <p>
+ * The pixels are computed once, when the source is created, into a buffer which may be reused from
+ * one frame to the next. The original is read a few rows at a time, never copied whole.
+ */
+public final class DownsampledLuminanceSource extends LuminanceSource {
+
+    /**
+     * The shorter side of a downsampled source never gets smaller than this, or small modules would
+     * blur into each other: a 1080p frame stops at 2, and only 4K frames go down by 4.
+     */
+    private static final int MIN_DOWNSAMPLED_SIDE = 480;
+
+    private final byte[] luminances;
+    private final int factor;
+
+    /**
+     * @param source The source to scale down, read once.
+     * @param factor 2 or 4.
+     * @param buffer Optional buffer for the scaled pixels; may be null or too small, in which case a
+     *               new array is allocated.
+     */
+    public DownsampledLuminanceSource(LuminanceSource source, int factor, byte[] buffer) {
+        this(source, factor, buffer, null);
+    }
+
+    /**
+     * @param source     The source to scale down, read factor rows at a time, so a
+     *                   {@link RotatedYUVLuminanceSource} view of a frame is never copied whole.
+     * @param factor     2 or 4.
+     * @param buffer     Optional buffer for the scaled pixels; may be null or too small, in which
+     *                   case a new array is allocated.
+     * @param rowsBuffer Optional buffer for factor rows of the source; may be null or too small, in
+     *                   which case a new array is allocated.
+     */
+    public DownsampledLuminanceSource(LuminanceSource source, int factor, byte[] buffer, byte[] rowsBuffer) {
+        super(source.getWidth() / factor, source.getHeight() / factor);
+        int shift;
+        switch (factor) {
+            case 2:
+                shift = 2;
+                break;
+            case 4:
+                shift = 4;
+                break;
+            default:
+                throw new IllegalArgumentException("Bad factor: " + factor);
+        }
+        int width = getWidth();
+        int height = getHeight();
+        int area = width * height;
+        int inputWidth = source.getWidth();
+        byte[] output = buffer != null && buffer.length >= area ? buffer : new byte[area];
+        byte[] rows = rowsBuffer != null && rowsBuffer.length >= factor * inputWidth
+                ? rowsBuffer
+                : new byte[factor * inputWidth];
+        RotatedYUVLuminanceSource view = source instanceof RotatedYUVLuminanceSource
+                ? (RotatedYUVLuminanceSource) source
+                : null;
+        byte[] row = null;
+        int outputOffset = 0;
+        for (int y = 0; y < height; y++) {
+            for (int dy = 0; dy < factor; dy++) {
+                if (view != null) {
+                    // Straight from the frame
+                    view.readRow(y * factor + dy, rows, dy * inputWidth);
+                } else {
+                    row = source.getRow(y * factor + dy, row);
+                    System.arraycopy(row, 0, rows, dy * inputWidth, inputWidth);
+                }
+            }
+            for (int x = 0; x < width; x++) {
+                int boxOffset = x * factor;
+                int sum = 0;
+                for (int dy = 0; dy < factor; dy++) {
+                    for (int dx = 0; dx < factor; dx++) {
+                        sum += rows[boxOffset + dx] & 0xff;
+                    }
+                    boxOffset += inputWidth;
+                }
+                output[outputOffset++] = (byte) (sum >> shift);
+            }
+        }
+        this.luminances = output;
+        this.factor = factor;
+    }
+
+    /**
+     * @return The largest factor worth scaling a source of the given size down by, or 1 if it is
+     * better decoded as it is.
+     */
+    public static int getFactor(int width, int height) {
+        int side = Math.min(width, height);
+        if (side >= 4 * MIN_DOWNSAMPLED_SIDE) {
+            return 4;
+        }
+        if (side >= 2 * MIN_DOWNSAMPLED_SIDE) {
+            return 2;
+        }
+        return 1;
+    }
+
+    public int getFactor() {
+        return factor;
+    }
+
+    @Override
+    public byte[] getRow(int y, byte[] row) {
+        if (y < 0 || y >= getHeight()) {
+            throw new IllegalArgumentException("Requested row is outside the image: " + y);
+        }
+        int width = getWidth();
+        if (row == null || row.length < width) {
+            row = new byte[width];
+        }
+        System.arraycopy(luminances, y * width, row, 0, width);
+        return row;
+    }
+
+    @Override
+    public byte[] getMatrix() {
+        // May be longer than the area when the buffer is reused; the pixels come first all the same
+        return luminances;
+    }
+
+}
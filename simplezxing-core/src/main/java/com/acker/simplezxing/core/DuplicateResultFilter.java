@@ -0,0 +1,119 @@
+package com.acker.simplezxing.core;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Result;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Suppresses barcodes seen again within a time window, so a code held in front of the camera is
+ * reported once rather than every frame. Codes are told apart by format and text.
+ * <p>
+ * The window slides: every sighting, suppressed or not, starts it over, so a code stays suppressed
+ * for as long as it stays in view and is reported again once it has been out of view for the whole
+ * window. At most {@code capacity} codes are remembered, the least recently seen being forgotten
+ * first. Codes are kept in the order they were last seen, so both expiry and eviction only ever
+ * look at the oldest ones, and each check takes constant time.
+ * <p>
+ * Thread safe.
+ */
+public final class DuplicateResultFilter {
+
+    private final long ttlMillis;
+    private final int capacity;
+    /**
+     * When each code was last seen, oldest first.
+     */
+    private final LinkedHashMap<Key, Long> lastSeen;
+    private final AtomicLong suppressedCount;
+
+    /**
+     * @param ttlMillis How long a code must be out of view before it is reported again.
+     * @param capacity  How many codes are remembered at most.
+     */
+    public DuplicateResultFilter(long ttlMillis, int capacity) {
+        if (ttlMillis <= 0L || capacity < 1) {
+            throw new IllegalArgumentException("Bad TTL or capacity: " + ttlMillis + ", " + capacity);
+        }
+        this.ttlMillis = ttlMillis;
+        this.capacity = capacity;
+        lastSeen = new LinkedHashMap<Key, Long>(capacity * 4 / 3 + 1) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Long> eldest) {
+                return size() > DuplicateResultFilter.this.capacity;
+            }
+        };
+        suppressedCount = new AtomicLong();
+    }
+
+    /**
+     * Records a sighting of the result's code.
+     *
+     * @param nowMillis The current time, on any monotonic clock.
+     * @return Whether the code was seen within the window, in which case it should not be reported.
+     */
+    public synchronized boolean isDuplicate(Result result, long nowMillis) {
+        expire(nowMillis);
+        Key key = new Key(result.getBarcodeFormat(), result.getText());
+        // Removed and put back, to move it to the end
+        boolean duplicate = lastSeen.remove(key) != null;
+        lastSeen.put(key, nowMillis);
+        if (duplicate) {
+            suppressedCount.incrementAndGet();
+        }
+        return duplicate;
+    }
+
+    /**
+     * Forgets every code, so each is reported again when next seen.
+     */
+    public synchronized void clear() {
+        lastSeen.clear();
+    }
+
+    /**
+     * @return How many results were suppressed.
+     */
+    public long getSuppressedCount() {
+        return suppressedCount.get();
+    }
+
+    private void expire(long nowMillis) {
+        Iterator<Long> iterator = lastSeen.values().iterator();
+        while (iterator.hasNext() && nowMillis - iterator.next() >= ttlMillis) {
+            iterator.remove();
+        }
+    }
+
+    private static final class Key {
+
+        private final BarcodeFormat format;
+        private final String text;
+        private final int hash;
+
+        Key(BarcodeFormat format, String text) {
+            this.format = format;
+            this.text = text == null ? "" : text;
+            hash = format.ordinal() * 31 + this.text.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && format == other.format && text.equals(other.text);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+    }
+
+}
@@ -0,0 +1,22 @@
+package com.acker.simplezxing.core;
+
+import com.google.zxing.BarcodeFormat;
+
+/**
+ * Where a {@link FormatScheduler} keeps how often each format has been scanned, so what it learns
+ * outlives the scanner. Implementations only need to be as durable as the platform allows.
+ */
+public interface FormatHistory {
+
+    /**
+     * @return How many barcodes of the format were stored, 0 if none.
+     */
+    int getSuccessCount(BarcodeFormat format);
+
+    /**
+     * Stores a new count for the format. Called when the {@link FormatScheduler} is flushed, at
+     * the end of a scan session, so should not block for long.
+     */
+    void setSuccessCount(BarcodeFormat format, int count);
+
+}
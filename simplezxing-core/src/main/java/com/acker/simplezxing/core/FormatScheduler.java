@@ -0,0 +1,141 @@
+package com.acker.simplezxing.core;
+
+import com.google.zxing.BarcodeFormat;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides which barcode formats are worth trying on a frame, based on which ones have actually been
+ * scanned before. The counts are kept in a {@link FormatHistory}, so every app learns its own mix.
+ * <p>
+ * Formats with a fair share of past successes are "hot" and tried on every frame. The others are
+ * "cold" and only tried on every {@link #COLD_FRAME_INTERVAL}th frame, or once a decode thread has
+ * failed {@link #COLD_FAILURE_STREAK} times in a row with the hot formats alone. Until enough
+ * history has been collected every allowed format counts as hot.
+ * <p>
+ * New counts are kept in memory and only stored by {@link #flush()}, so scanning never waits on
+ * the history.
+ */
+public final class FormatScheduler {
+
+    static final int COLD_FRAME_INTERVAL = 4;
+    static final int COLD_FAILURE_STREAK = 3;
+
+    private static final int MIN_HISTORY = 20;
+    private static final float MIN_HOT_SHARE = 0.05f;
+
+    private final FormatHistory history;
+    private final Set<BarcodeFormat> allowedFormats;
+    private final int[] successCounts;
+    /**
+     * The formats counted since the last {@link #flush()}; guarded by this.
+     */
+    private final Set<BarcodeFormat> unflushedFormats;
+    private final AtomicInteger frameCounter;
+    private volatile Set<BarcodeFormat> hotFormats;
+
+    /**
+     * @param history        Where the counts are loaded from and stored, or null not to learn from
+     *                       the history at all, and try every allowed format on every frame.
+     * @param allowedFormats The formats to decode at all, or null for all supported ones.
+     */
+    public FormatScheduler(FormatHistory history, Collection<BarcodeFormat> allowedFormats) {
+        Set<BarcodeFormat> formats = EnumSet.noneOf(BarcodeFormat.class);
+        if (allowedFormats == null || allowedFormats.isEmpty()) {
+            for (Set<BarcodeFormat> family : DecodeFormatManager.FORMAT_FAMILIES) {
+                formats.addAll(family);
+            }
+        } else {
+            formats.addAll(allowedFormats);
+        }
+        this.allowedFormats = Collections.unmodifiableSet(formats);
+        successCounts = new int[BarcodeFormat.values().length];
+        unflushedFormats = EnumSet.noneOf(BarcodeFormat.class);
+        frameCounter = new AtomicInteger();
+        this.history = history;
+        if (history != null) {
+            for (BarcodeFormat format : BarcodeFormat.values()) {
+                successCounts[format.ordinal()] = history.getSuccessCount(format);
+            }
+        }
+        hotFormats = computeHotFormats();
+    }
+
+    public Set<BarcodeFormat> getAllowedFormats() {
+        return allowedFormats;
+    }
+
+    /**
+     * @return The formats to try on every frame. A new set is published whenever it changes, so
+     * callers may compare by identity to find out whether to rebuild their readers.
+     */
+    public Set<BarcodeFormat> getHotFormats() {
+        return hotFormats;
+    }
+
+    /**
+     * Called once per frame.
+     *
+     * @param failureStreak How many frames the calling decode thread has failed in a row since it
+     *                      last tried all formats.
+     * @return true if the frame should be decoded with all allowed formats, false for the hot ones only.
+     */
+    boolean shouldTryAllFormats(int failureStreak) {
+        return failureStreak >= COLD_FAILURE_STREAK
+                || frameCounter.incrementAndGet() % COLD_FRAME_INTERVAL == 0;
+    }
+
+    /**
+     * Records a barcode which was scanned. Call it once per barcode the user is given, not once per
+     * frame it was found in, or codes held in view longer would weigh more.
+     */
+    public synchronized void recordSuccess(BarcodeFormat format) {
+        if (history == null) {
+            return;
+        }
+        successCounts[format.ordinal()]++;
+        unflushedFormats.add(format);
+        Set<BarcodeFormat> newHotFormats = computeHotFormats();
+        if (!newHotFormats.equals(hotFormats)) {
+            hotFormats = newHotFormats;
+        }
+    }
+
+    /**
+     * Stores the counts recorded since the last flush in the history.
+     */
+    public synchronized void flush() {
+        if (history == null) {
+            return;
+        }
+        for (BarcodeFormat format : unflushedFormats) {
+            history.setSuccessCount(format, successCounts[format.ordinal()]);
+        }
+        unflushedFormats.clear();
+    }
+
+    private Set<BarcodeFormat> computeHotFormats() {
+        if (history == null) {
+            return allowedFormats;
+        }
+        int total = 0;
+        for (BarcodeFormat format : allowedFormats) {
+            total += successCounts[format.ordinal()];
+        }
+        if (total < MIN_HISTORY) {
+            return allowedFormats;
+        }
+        Set<BarcodeFormat> formats = EnumSet.noneOf(BarcodeFormat.class);
+        for (BarcodeFormat format : allowedFormats) {
+            if (successCounts[format.ordinal()] >= total * MIN_HOT_SHARE) {
+                formats.add(format);
+            }
+        }
+        return Collections.unmodifiableSet(formats);
+    }
+
+}
@@ -0,0 +1,141 @@
+package com.acker.simplezxing.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A camera frame as the sensor delivered it, plus how to turn it to be displayed upright. Only the
+ * luminance is read, either from the start of a planar YUV array, NV21 or any other format whose
+ * luminance comes first, or from a luminance plane of its own, such as the Y plane of a YUV_420_888
+ * image.
+ * <p>
+ * Does not copy the buffer; it must not change while the frame is decoded.
+ */
+public final class Frame {
+
+    private final byte[] data;
+    private final ByteBuffer luminance;
+    private final int rowStride;
+    private final int width;
+    private final int height;
+    private final int rotation;
+    private final long timestampNanos;
+
+    /**
+     * A frame taken now.
+     *
+     * @param data     The frame buffer.
+     * @param width    The width of the frame in the sensor's orientation.
+     * @param height   The height of the frame in the sensor's orientation.
+     * @param rotation Clockwise rotation which makes the frame upright, one of 0, 90, 180 and 270.
+     */
+    public Frame(byte[] data, int width, int height, int rotation) {
+        this(data, width, height, rotation, System.nanoTime());
+    }
+
+    /**
+     * @param data           The frame buffer.
+     * @param width          The width of the frame in the sensor's orientation.
+     * @param height         The height of the frame in the sensor's orientation.
+     * @param rotation       Clockwise rotation which makes the frame upright, one of 0, 90, 180 and
+     *                       270.
+     * @param timestampNanos When the frame was taken, on any monotonic clock.
+     */
+    public Frame(byte[] data, int width, int height, int rotation, long timestampNanos) {
+        if (rotation != 0 && rotation != 90 && rotation != 180 && rotation != 270) {
+            throw new IllegalArgumentException("Bad rotation: " + rotation);
+        }
+        if (data.length < width * height) {
+            throw new IllegalArgumentException("Buffer too small for " + width + 'x' + height);
+        }
+        this.data = data;
+        luminance = null;
+        rowStride = width;
+        this.width = width;
+        this.height = height;
+        this.rotation = rotation;
+        this.timestampNanos = timestampNanos;
+    }
+
+    /**
+     * @param luminance The luminance plane, one byte per pixel, read from index 0 whatever its
+     *                  position; it is never moved.
+     * @param rowStride How many bytes apart the rows of the plane start, at least the width.
+     * @param width     The width of the frame in the sensor's orientation.
+     * @param height    The height of the frame in the sensor's orientation.
+     * @param rotation  Clockwise rotation which makes the frame upright, one of 0, 90, 180 and 270.
+     * @param timestampNanos When the frame was taken, on any monotonic clock.
+     */
+    public Frame(ByteBuffer luminance, int rowStride, int width, int height, int rotation, long timestampNanos) {
+        if (rotation != 0 && rotation != 90 && rotation != 180 && rotation != 270) {
+            throw new IllegalArgumentException("Bad rotation: " + rotation);
+        }
+        // The last row may stop short of the stride
+        if (rowStride < width || luminance.capacity() < (height - 1) * rowStride + width) {
+            throw new IllegalArgumentException("Plane too small for " + width + 'x' + height
+                    + " with row stride " + rowStride);
+        }
+        data = null;
+        this.luminance = luminance;
+        this.rowStride = rowStride;
+        this.width = width;
+        this.height = height;
+        this.rotation = rotation;
+        this.timestampNanos = timestampNanos;
+    }
+
+    /**
+     * @return The frame buffer, or null if the frame is a luminance plane.
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * @return The luminance plane, or null if the frame is a buffer.
+     */
+    public ByteBuffer getLuminance() {
+        return luminance;
+    }
+
+    /**
+     * @return How many bytes apart the rows of luminance start.
+     */
+    public int getRowStride() {
+        return rowStride;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getRotation() {
+        return rotation;
+    }
+
+    /**
+     * @return When the frame was taken, on the clock it was stamped with; only differences between
+     * the frames of one camera mean anything.
+     */
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    /**
+     * @return The width of the frame as displayed, after rotation.
+     */
+    public int getDisplayWidth() {
+        return rotation % 180 == 0 ? width : height;
+    }
+
+    /**
+     * @return The height of the frame as displayed, after rotation.
+     */
+    public int getDisplayHeight() {
+        return rotation % 180 == 0 ? height : width;
+    }
+
+}
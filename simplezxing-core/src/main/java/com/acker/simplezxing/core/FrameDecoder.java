@@ -0,0 +1,440 @@
+package com.acker.simplezxing.core;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.ResultPointCallback;
+import com.google.zxing.common.HybridBinarizer;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Turns camera frames into barcodes: views the scan area upright without copying the frame, skips
+ * frames not worth decoding, picks the formats, the resolution and the binarizer to try, and runs
+ * the readers. This is the whole decode path of the scanner, free of any platform types, so that it
+ * can be run and measured anywhere.
+ * <p>
+ * Not thread safe: each decode thread needs its own. Several decoders may share a
+ * {@link FormatScheduler}, a {@link FrameQualityGate}, a {@link RegionOfInterestTracker} and a
+ * format executor.
+ */
+public final class FrameDecoder {
+
+    /**
+     * In pyramid mode, every this many frames are decoded at full resolution even when nothing was
+     * seen at the lower one, so that codes too small to be even located there are not missed forever.
+     */
+    private static final int FULL_RESOLUTION_INTERVAL = 4;
+
+    private final Map<DecodeHintType, Object> hints;
+    private final FormatScheduler formatScheduler;
+    /**
+     * Tries all allowed formats.
+     */
+    private final MultiFormatReader multiFormatReader;
+    /**
+     * Tries the hot formats of {@link #formatScheduler} only, rebuilt when they change.
+     */
+    private final MultiFormatReader hotFormatReader;
+    /**
+     * Searches for several barcodes with {@link #multiFormatReader}.
+     */
+    private final CappedMultipleBarcodeReader multipleReader;
+    private Set<BarcodeFormat> hotReaderFormats;
+    /**
+     * What {@link #isOneDOnly} last found, and for which formats.
+     */
+    private Set<BarcodeFormat> oneDOnlyFormats;
+    private boolean oneDOnly;
+    /**
+     * Frames failed in a row since all formats were last tried.
+     */
+    private int failureStreak;
+    /**
+     * Decodes the format families concurrently instead of {@link #multiFormatReader}, if not null.
+     */
+    private final ParallelFormatDecoder parallelFormatDecoder;
+    private final BinarizerSelector binarizerSelector;
+    private final CandidateResultPointCallback candidateCallback;
+    private final boolean pyramid;
+    private final FrameQualityGate frameQualityGate;
+    private final FrameQualityGate.Scratch frameQualityScratch;
+    private final DecodeMetrics metrics;
+    private final RegionOfInterestTracker regionOfInterestTracker;
+    /**
+     * Frames decoded downsampled only since the last full resolution attempt.
+     */
+    private int downsampledOnlyFrames;
+    /**
+     * What {@link #frameQualityGate} made of the last frame, null if it did not see it.
+     */
+    private FrameQualityGate.Verdict lastVerdict;
+    /**
+     * Whether the readers located anything in the last frame.
+     */
+    private boolean lastCandidateFound;
+    /**
+     * Holds the luminance matrix of the scan area. Reused from one decode to the next and only
+     * grown when the scan area gets bigger, so steady state scanning does not allocate per frame.
+     */
+    private byte[] matrixBuffer;
+    /**
+     * Holds the downsampled scan area in pyramid mode, reused like {@link #matrixBuffer}.
+     */
+    private byte[] downsampledBuffer;
+    /**
+     * Holds the few rows of the scan area being downsampled at a time, reused like
+     * {@link #matrixBuffer}.
+     */
+    private byte[] downsampledRowsBuffer;
+
+    /**
+     * @param formatScheduler     Decides which formats to try on each frame.
+     * @param resultPointCallback Told about possible result points as they are found, in the
+     *                            coordinates of the scan area; may be null.
+     * @param formatExecutor      Runs the format families of each frame concurrently, see
+     *                            {@link ParallelFormatDecoder}; null to decode all formats on the
+     *                            calling thread.
+     * @param adaptiveBinarizer   Whether large, high contrast frames are tried with a cheaper
+     *                            binarizer first, see {@link BinarizerSelector}.
+     * @param pyramid             Whether large scan areas are tried downsampled first, see
+     *                            {@link DownsampledLuminanceSource}.
+     * @param frameQualityGate    Rejects frames not worth decoding, may be null to decode all.
+     * @param metrics             Where to count frames and time the stages of decoding them, may be
+     *                            null.
+     * @param regionOfInterestTracker Narrows each frame down to where barcodes were last located,
+     *                                may be null to always decode the whole scan area.
+     */
+    public FrameDecoder(FormatScheduler formatScheduler,
+                        ResultPointCallback resultPointCallback,
+                        Executor formatExecutor,
+                        boolean adaptiveBinarizer,
+                        boolean pyramid,
+                        FrameQualityGate frameQualityGate,
+                        DecodeMetrics metrics,
+                        RegionOfInterestTracker regionOfInterestTracker) {
+        this.formatScheduler = formatScheduler;
+        candidateCallback = new CandidateResultPointCallback(resultPointCallback);
+        hints = new EnumMap<>(DecodeHintType.class);
+        hints.put(DecodeHintType.POSSIBLE_FORMATS, EnumSet.copyOf(formatScheduler.getAllowedFormats()));
+        hints.put(DecodeHintType.NEED_RESULT_POINT_CALLBACK, candidateCallback);
+        multiFormatReader = new MultiFormatReader();
+        multiFormatReader.setHints(hints);
+        hotFormatReader = new MultiFormatReader();
+        multipleReader = new CappedMultipleBarcodeReader(multiFormatReader);
+        parallelFormatDecoder = formatExecutor == null ? null : new ParallelFormatDecoder(hints, formatExecutor, metrics);
+        binarizerSelector = new BinarizerSelector(adaptiveBinarizer);
+        this.pyramid = pyramid;
+        this.frameQualityGate = frameQualityGate;
+        frameQualityScratch = frameQualityGate == null ? null : new FrameQualityGate.Scratch();
+        this.metrics = metrics;
+        this.regionOfInterestTracker = regionOfInterestTracker;
+    }
+
+    /**
+     * Decodes the scan area of a frame. The result may be returned while format families which
+     * lost the race are still reading the frame; call {@link #awaitIdle()} before its buffer is
+     * reused.
+     *
+     * @param frame    The frame to decode.
+     * @param scanArea The part of the frame to decode, as displayed. Areas which do not fit within
+     *                 the frame are not decoded. With a {@link RegionOfInterestTracker}, only its
+     *                 region of the area may be.
+     * @return The barcode found, with its points in the coordinates of the scan area, or null. The
+     * {@link FormatScheduler} is not told about it: that is up to the caller, once it knows whether
+     * the barcode is a new one.
+     */
+    public Result decode(Frame frame, ScanArea scanArea) {
+        long start = System.nanoTime();
+        ScanArea region = regionOfInterestTracker == null || scanArea == null
+                ? scanArea
+                : regionOfInterestTracker.getRegion(scanArea);
+        LuminanceSource source = buildLuminanceSource(frame, region);
+        if (!isWorthDecoding(source)) {
+            count(DecodeMetrics.Counter.DROPPED);
+            return null;
+        }
+        int offsetX = region.getLeft() - scanArea.getLeft();
+        int offsetY = region.getTop() - scanArea.getTop();
+        candidateCallback.startFrame(offsetX, offsetY);
+        Set<BarcodeFormat> hotFormats = formatScheduler.getHotFormats();
+        boolean allFormats = hotFormats.equals(formatScheduler.getAllowedFormats())
+                || formatScheduler.shouldTryAllFormats(failureStreak);
+        Set<BarcodeFormat> formats = allFormats ? formatScheduler.getAllowedFormats() : hotFormats;
+        Result rawResult = null;
+        int factor = pyramid ? DownsampledLuminanceSource.getFactor(source.getWidth(), source.getHeight()) : 1;
+        if (factor > 1) {
+            // Downsampled straight from the frame, so full resolution is only copied if decoded too
+            rawResult = decodeDownsampled(source, factor, formats);
+        }
+        if (rawResult == null && (factor == 1 || candidateCallback.isCandidateFound()
+                || ++downsampledOnlyFrames >= FULL_RESOLUTION_INTERVAL)) {
+            downsampledOnlyFrames = 0;
+            if (parallelFormatDecoder != null || !isOneDOnly(formats)) {
+                // The whole scan area will be read, maybe more than once, so rotate it once up front
+                source = rotate(source);
+            }
+            candidateCallback.reset(1);
+            rawResult = decode(source, formats);
+        }
+        if (rawResult != null && (offsetX != 0 || offsetY != 0)) {
+            rawResult = transformResultPoints(rawResult, 1, offsetX, offsetY);
+        }
+        if (regionOfInterestTracker != null) {
+            trackRegionOfInterest(scanArea, rawResult);
+        }
+        lastCandidateFound = candidateCallback.isFrameCandidateFound();
+        if (rawResult != null) {
+            failureStreak = 0;
+        } else {
+            failureStreak = allFormats ? 0 : failureStreak + 1;
+        }
+        if (metrics != null) {
+            if (rawResult != null) {
+                metrics.recordDecoded(rawResult.getBarcodeFormat());
+            } else {
+                metrics.increment(DecodeMetrics.Counter.FAILED);
+            }
+            metrics.recordStage(DecodeMetrics.Stage.FRAME, System.nanoTime() - start);
+        }
+        return rawResult;
+    }
+
+    /**
+     * Decodes every barcode in the scan area of a frame. All allowed formats are tried on the whole
+     * area at full resolution with HybridBinarizer, and then on the regions around each barcode
+     * found, so the pyramid, the parallel families, the format history and the region of interest
+     * are left out.
+     *
+     * @param frame      The frame to decode.
+     * @param scanArea   The part of the frame to decode, as displayed.
+     * @param maxRegions How many regions to search at most, the whole scan area being the first;
+     *                   bounds the cost of a frame.
+     * @return Every distinct barcode found, with its points in the coordinates of the scan area;
+     * empty if none was. As with {@link #decode}, the {@link FormatScheduler} is not told.
+     */
+    public List<Result> decodeMultiple(Frame frame, ScanArea scanArea, int maxRegions) {
+        long start = System.nanoTime();
+        LuminanceSource source = buildLuminanceSource(frame, scanArea);
+        if (!isWorthDecoding(source)) {
+            count(DecodeMetrics.Counter.DROPPED);
+            return Collections.emptyList();
+        }
+        // Regions are cropped from the upright area rather than rotated again each
+        source = rotate(source);
+        candidateCallback.startFrame(0, 0);
+        candidateCallback.reset(1);
+        List<Result> results = multipleReader.decodeMultiple(new BinaryBitmap(new HybridBinarizer(source)),
+                maxRegions);
+        lastCandidateFound = candidateCallback.isFrameCandidateFound();
+        if (metrics != null) {
+            if (results.isEmpty()) {
+                metrics.increment(DecodeMetrics.Counter.FAILED);
+            } else {
+                // Frames are counted, so one per frame
+                metrics.recordDecoded(results.get(0).getBarcodeFormat());
+            }
+            metrics.recordStage(DecodeMetrics.Stage.FRAME, System.nanoTime() - start);
+        }
+        return results;
+    }
+
+    /**
+     * @return What the {@link FrameQualityGate} made of the last frame, telling whether it was in
+     * focus; null if there is no gate or the frame did not reach it.
+     */
+    public FrameQualityGate.Verdict getLastVerdict() {
+        return lastVerdict;
+    }
+
+    /**
+     * @return Whether the readers located something that looked like a barcode in the last frame,
+     * such as finder patterns, whether or not it was decoded.
+     */
+    public boolean isLastCandidateFound() {
+        return lastCandidateFound;
+    }
+
+    /**
+     * Blocks until nothing reads the last frame any more, so its buffer can be reused.
+     */
+    public void awaitIdle() {
+        if (parallelFormatDecoder != null) {
+            parallelFormatDecoder.awaitIdle();
+        }
+    }
+
+    /**
+     * Starts a new frame, and checks it with {@link #frameQualityGate} if there is one.
+     *
+     * @param source The scan area of the frame, null if it does not fit within the frame.
+     */
+    private boolean isWorthDecoding(LuminanceSource source) {
+        lastVerdict = null;
+        lastCandidateFound = false;
+        if (source == null) {
+            return false;
+        }
+        if (frameQualityGate != null) {
+            lastVerdict = frameQualityGate.check(source, frameQualityScratch);
+            return lastVerdict == FrameQualityGate.Verdict.PASSED;
+        }
+        return true;
+    }
+
+    private Result decode(LuminanceSource source, Set<BarcodeFormat> formats) {
+        boolean globalHistogramFirst = binarizerSelector.shouldTryGlobalHistogramFirst(source);
+        if (parallelFormatDecoder != null) {
+            return parallelFormatDecoder.decode(source, formats, globalHistogramFirst);
+        }
+        MultiFormatReader reader = formats == formatScheduler.getAllowedFormats()
+                ? multiFormatReader
+                : getHotFormatReader(formats);
+        return BinarizerSelector.decode(reader, source, globalHistogramFirst, !isOneDOnly(formats), metrics);
+    }
+
+    /**
+     * Decodes the source scaled down by the factor. Whether any reader located something that looked
+     * like a barcode is left in {@link #candidateCallback}.
+     *
+     * @return The barcode found, with its points in the coordinates of the source, or null.
+     */
+    private Result decodeDownsampled(LuminanceSource source, int factor, Set<BarcodeFormat> formats) {
+        int area = (source.getWidth() / factor) * (source.getHeight() / factor);
+        if (downsampledBuffer == null || downsampledBuffer.length < area) {
+            downsampledBuffer = new byte[area];
+        }
+        int rowsArea = factor * source.getWidth();
+        if (downsampledRowsBuffer == null || downsampledRowsBuffer.length < rowsArea) {
+            downsampledRowsBuffer = new byte[rowsArea];
+        }
+        candidateCallback.reset(factor);
+        Result result = decode(new DownsampledLuminanceSource(source, factor, downsampledBuffer,
+                downsampledRowsBuffer), formats);
+        if (result == null && parallelFormatDecoder != null) {
+            // Families still running may yet report a candidate
+            parallelFormatDecoder.awaitIdle();
+        }
+        return result == null ? null : transformResultPoints(result, factor, 0, 0);
+    }
+
+    /**
+     * @return The result with each of its points scaled up by the factor, then moved by the offset.
+     */
+    private static Result transformResultPoints(Result result, int factor, int offsetX, int offsetY) {
+        ResultPoint[] points = result.getResultPoints();
+        if (points == null) {
+            return result;
+        }
+        ResultPoint[] transformedPoints = new ResultPoint[points.length];
+        for (int i = 0; i < points.length; i++) {
+            if (points[i] != null) {
+                transformedPoints[i] = new ResultPoint(points[i].getX() * factor + offsetX,
+                        points[i].getY() * factor + offsetY);
+            }
+        }
+        Result transformedResult = new Result(result.getText(), result.getRawBytes(), result.getNumBits(),
+                transformedPoints, result.getBarcodeFormat(), result.getTimestamp());
+        transformedResult.putAllMetadata(result.getResultMetadata());
+        return transformedResult;
+    }
+
+    /**
+     * Tells {@link #regionOfInterestTracker} where barcodes were located in the frame: the
+     * candidates the readers reported, and the barcode found if any.
+     *
+     * @param result The barcode found, with its points in the coordinates of the scan area, or null.
+     */
+    private void trackRegionOfInterest(ScanArea scanArea, Result result) {
+        if (result != null && result.getResultPoints() != null) {
+            for (ResultPoint point : result.getResultPoints()) {
+                if (point != null) {
+                    candidateCallback.include(point.getX(), point.getY());
+                }
+            }
+        }
+        candidateCallback.reportTo(regionOfInterestTracker, scanArea);
+    }
+
+    /**
+     * @return The source's luminance matrix, read into {@link #matrixBuffer} once and for all.
+     */
+    private LuminanceSource rotate(LuminanceSource source) {
+        long start = System.nanoTime();
+        int width = source.getWidth();
+        int height = source.getHeight();
+        LuminanceSource rotated = new PlanarYUVLuminanceSource(source.getMatrix(), width, height,
+                0, 0, width, height, false);
+        if (metrics != null) {
+            metrics.recordStage(DecodeMetrics.Stage.ROTATE, System.nanoTime() - start);
+        }
+        return rotated;
+    }
+
+    /**
+     * @return Whether the formats are all read row by row, in which case only the rows the readers
+     * ask for are ever rotated.
+     */
+    private boolean isOneDOnly(Set<BarcodeFormat> formats) {
+        if (formats != oneDOnlyFormats) {
+            oneDOnly = DecodeFormatManager.ONE_D_FORMATS.containsAll(formats);
+            oneDOnlyFormats = formats;
+        }
+        return oneDOnly;
+    }
+
+    private void count(DecodeMetrics.Counter counter) {
+        if (metrics != null) {
+            metrics.increment(counter);
+        }
+    }
+
+    private MultiFormatReader getHotFormatReader(Set<BarcodeFormat> hotFormats) {
+        if (hotFormats != hotReaderFormats) {
+            Map<DecodeHintType, Object> hotHints = new EnumMap<>(DecodeHintType.class);
+            hotHints.putAll(hints);
+            hotHints.put(DecodeHintType.POSSIBLE_FORMATS, hotFormats);
+            hotFormatReader.setHints(hotHints);
+            hotReaderFormats = hotFormats;
+        }
+        return hotFormatReader;
+    }
+
+    /**
+     * Rather than rotating the frame, views it as rotated and cropped to the scan area; ZXing then
+     * only reads the pixels it needs.
+     *
+     * @return A LuminanceSource over the scan area, or null if it does not fit within the frame.
+     */
+    private LuminanceSource buildLuminanceSource(Frame frame, ScanArea scanArea) {
+        if (scanArea == null || !scanArea.fitsWithin(frame.getDisplayWidth(), frame.getDisplayHeight())) {
+            return null;
+        }
+        int area = scanArea.getWidth() * scanArea.getHeight();
+        if (matrixBuffer == null || matrixBuffer.length < area) {
+            matrixBuffer = new byte[area];
+        }
+        if (frame.getData() == null) {
+            return new RotatedYUVLuminanceSource(frame.getLuminance(), frame.getRowStride(),
+                    frame.getWidth(), frame.getHeight(), frame.getRotation(),
+                    scanArea.getLeft(), scanArea.getTop(), scanArea.getWidth(), scanArea.getHeight(),
+                    matrixBuffer);
+        }
+        return new RotatedYUVLuminanceSource(frame.getData(), frame.getWidth(), frame.getHeight(),
+                frame.getRotation(),
+                scanArea.getLeft(), scanArea.getTop(), scanArea.getWidth(), scanArea.getHeight(),
+                matrixBuffer);
+    }
+
+}
@@ -0,0 +1,163 @@
+package com.acker.simplezxing.core;
+
+import com.google.zxing.LuminanceSource;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Rejects frames which stand no chance of decoding, such as those taken while the lens is still
+ * hunting for focus, before a full reader pass is spent on them. Exposure, contrast and sharpness
+ * are estimated from a sparse sample of rows of the scan area:
+ * <ul>
+ * <li>brightness is the mean luminance, from 0 to 255;</li>
+ * <li>contrast is the distance between the 1st and the 99th percentile of the luminance, so that a
+ * small code in a large scan area still counts;</li>
+ * <li>sharpness is the mean steepness of the edges relative to the contrast, from 0 to 100. An edge
+ * spread over n pixels scores about 100 / n, so defocus blur lowers it while lighting does not.</li>
+ * </ul>
+ * How many frames were checked and why they were rejected is counted process wide, so the
+ * thresholds can be tuned in the field.
+ */
+public final class FrameQualityGate {
+
+    private static final int LUMINANCE_BITS = 3;
+    private static final int LUMINANCE_BUCKETS = 256 >> LUMINANCE_BITS;
+    private static final int SAMPLE_ROWS = 16;
+    private static final int SAMPLE_STEP = 4;
+
+    private static final AtomicLongArray counts = new AtomicLongArray(Verdict.values().length);
+
+    private final int minSharpness;
+    private final int minContrast;
+    private final int minBrightness;
+    private final int maxBrightness;
+
+    /**
+     * @param minSharpness  Frames less sharp than this are rejected as {@link Verdict#BLURRED}.
+     * @param minContrast   Frames with less contrast are rejected as {@link Verdict#LOW_CONTRAST}.
+     * @param minBrightness Darker frames are rejected as {@link Verdict#UNDER_EXPOSED}.
+     * @param maxBrightness Brighter frames are rejected as {@link Verdict#OVER_EXPOSED}.
+     */
+    public FrameQualityGate(int minSharpness, int minContrast, int minBrightness, int maxBrightness) {
+        this.minSharpness = minSharpness;
+        this.minContrast = minContrast;
+        this.minBrightness = minBrightness;
+        this.maxBrightness = maxBrightness;
+    }
+
+    /**
+     * @return How many frames got the verdict.
+     */
+    public static long getCount(Verdict verdict) {
+        return counts.get(verdict.ordinal());
+    }
+
+    /**
+     * @return How many frames were rejected for any reason.
+     */
+    public static long getRejectedCount() {
+        long rejected = 0L;
+        for (Verdict verdict : Verdict.values()) {
+            if (verdict != Verdict.PASSED) {
+                rejected += getCount(verdict);
+            }
+        }
+        return rejected;
+    }
+
+    public static void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0L);
+        }
+    }
+
+    /**
+     * Safe to call from several decode threads at once, each with a scratch of its own.
+     *
+     * @return {@link Verdict#PASSED} if the frame is worth decoding, or why not.
+     */
+    Verdict check(LuminanceSource source, Scratch scratch) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int[] buckets = scratch.buckets;
+        for (int i = 0; i < LUMINANCE_BUCKETS; i++) {
+            buckets[i] = 0;
+        }
+        byte[] row = scratch.row;
+        int samples = 0;
+        long luminanceSum = 0L;
+        long gradientSum = 0L;
+        long gradientSquareSum = 0L;
+        for (int i = 1; i <= SAMPLE_ROWS; i++) {
+            row = source.getRow(height * i / (SAMPLE_ROWS + 1), row);
+            int previous = row[0] & 0xff;
+            for (int x = 1; x < width; x++) {
+                int luminance = row[x] & 0xff;
+                int gradient = luminance - previous;
+                gradientSum += gradient < 0 ? -gradient : gradient;
+                gradientSquareSum += gradient * gradient;
+                previous = luminance;
+                if (x % SAMPLE_STEP == 0) {
+                    buckets[luminance >> LUMINANCE_BITS]++;
+                    luminanceSum += luminance;
+                    samples++;
+                }
+            }
+        }
+        scratch.row = row;
+        Verdict verdict;
+        if (samples == 0) {
+            verdict = Verdict.PASSED;
+        } else {
+            int brightness = (int) (luminanceSum / samples);
+            int contrast = (percentileBucket(buckets, samples - samples / 100)
+                    - percentileBucket(buckets, samples / 100)) << LUMINANCE_BITS;
+            int sharpness = gradientSum == 0L || contrast == 0
+                    ? 0
+                    : (int) (100L * gradientSquareSum / (gradientSum * contrast));
+            if (brightness < minBrightness) {
+                verdict = Verdict.UNDER_EXPOSED;
+            } else if (brightness > maxBrightness) {
+                verdict = Verdict.OVER_EXPOSED;
+            } else if (contrast < minContrast) {
+                verdict = Verdict.LOW_CONTRAST;
+            } else if (sharpness < minSharpness) {
+                verdict = Verdict.BLURRED;
+            } else {
+                verdict = Verdict.PASSED;
+            }
+        }
+        counts.incrementAndGet(verdict.ordinal());
+        return verdict;
+    }
+
+    private static int percentileBucket(int[] buckets, int rank) {
+        int count = 0;
+        for (int i = 0; i < LUMINANCE_BUCKETS; i++) {
+            count += buckets[i];
+            if (count >= rank) {
+                return i;
+            }
+        }
+        return LUMINANCE_BUCKETS - 1;
+    }
+
+    /**
+     * What {@link #check} works in, so checking does not allocate. Owned by one decode thread.
+     */
+    static final class Scratch {
+
+        private final int[] buckets = new int[LUMINANCE_BUCKETS];
+        private byte[] row;
+
+    }
+
+    public enum Verdict {
+        PASSED,
+        UNDER_EXPOSED,
+        OVER_EXPOSED,
+        LOW_CONTRAST,
+        BLURRED
+    }
+
+}
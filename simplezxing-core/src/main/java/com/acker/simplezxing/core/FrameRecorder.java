@@ -0,0 +1,202 @@
+package com.acker.simplezxing.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Appends frames and how they were decoded to a file, for {@link FrameReplayer} to play back later.
+ * <p>
+ * Recording never blocks the caller on disk: each frame is copied once, into one of a few direct
+ * buffers, and written out through a {@link FileChannel} by a background thread. When all buffers
+ * are waiting to be written the frame is dropped and counted instead.
+ * <p>
+ * The file starts with {@link #MAGIC} and {@link #VERSION}, followed by one record per frame: a
+ * header of {@link #RECORD_HEADER_SIZE} bytes (timestamp in nanoseconds, width, height, rotation,
+ * scan area left, top, width and height, data length), then the frame data. All numbers are big
+ * endian. A file may be appended to by several recordings in a row.
+ */
+public final class FrameRecorder implements Closeable {
+
+    static final int MAGIC = 0x535a5846; // "SZXF"
+    static final int VERSION = 1;
+    static final int FILE_HEADER_SIZE = 8;
+    static final int RECORD_HEADER_SIZE = 8 + 4 * 8;
+
+    private final FileChannel channel;
+    private final BlockingQueue<ByteBuffer> freeBuffers;
+    private final BlockingQueue<ByteBuffer> pendingBuffers;
+    /**
+     * Put on {@link #pendingBuffers} to stop the writer once everything before it is written.
+     */
+    private final ByteBuffer endOfRecording;
+    private final Thread writer;
+    private final AtomicLong recordedCount;
+    private final AtomicLong droppedCount;
+    private volatile IOException writeException;
+    private volatile boolean closed;
+
+    /**
+     * @param file        Where to append the frames to; created if it does not exist.
+     * @param bufferCount How many frames may wait to be written before new ones are dropped.
+     */
+    public FrameRecorder(File file, int bufferCount) throws IOException {
+        if (bufferCount < 1) {
+            throw new IllegalArgumentException("Bad buffer count: " + bufferCount);
+        }
+        channel = new FileOutputStream(file, true).getChannel();
+        if (channel.size() == 0L) {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            writeFully(header);
+        }
+        freeBuffers = new ArrayBlockingQueue<>(bufferCount);
+        pendingBuffers = new ArrayBlockingQueue<>(bufferCount + 1);
+        for (int i = 0; i < bufferCount; i++) {
+            // Grown to the frame size on first use
+            freeBuffers.add(ByteBuffer.allocateDirect(0));
+        }
+        endOfRecording = ByteBuffer.allocate(0);
+        recordedCount = new AtomicLong();
+        droppedCount = new AtomicLong();
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "FrameRecorder");
+        writer.start();
+    }
+
+    /**
+     * Copies the frame to be written in the background. Safe to call from several threads at once.
+     *
+     * @param timestampNanos When the frame was taken, on any monotonic clock, such as
+     *                       {@link Frame#getTimestampNanos()}.
+     * @param scanArea       The part of the frame decoded.
+     * @return false if the frame was dropped, because the disk can't keep up or the recorder is
+     * closed or failed.
+     */
+    public boolean record(Frame frame, ScanArea scanArea, long timestampNanos) {
+        ByteBuffer buffer = closed || writeException != null ? null : freeBuffers.poll();
+        if (buffer == null) {
+            droppedCount.incrementAndGet();
+            return false;
+        }
+        // The luminance plus the chroma of NV21, or the whole buffer if it is shorter; of a luminance
+        // plane, the luminance alone
+        int dataLength = frame.getData() == null
+                ? frame.getWidth() * frame.getHeight()
+                : Math.min(frame.getData().length, frame.getWidth() * frame.getHeight() * 3 / 2);
+        int recordLength = RECORD_HEADER_SIZE + dataLength;
+        if (buffer.capacity() < recordLength) {
+            buffer = ByteBuffer.allocateDirect(recordLength);
+        }
+        buffer.clear();
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        buffer.putLong(timestampNanos)
+                .putInt(frame.getWidth())
+                .putInt(frame.getHeight())
+                .putInt(frame.getRotation())
+                .putInt(scanArea.getLeft())
+                .putInt(scanArea.getTop())
+                .putInt(scanArea.getWidth())
+                .putInt(scanArea.getHeight())
+                .putInt(dataLength);
+        if (frame.getData() == null) {
+            putLuminance(frame, buffer);
+        } else {
+            buffer.put(frame.getData(), 0, dataLength);
+        }
+        buffer.flip();
+        pendingBuffers.add(buffer);
+        return true;
+    }
+
+    /**
+     * @return How many frames were handed to the writer.
+     */
+    public long getRecordedCount() {
+        return recordedCount.get();
+    }
+
+    /**
+     * @return How many frames were dropped.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Writes out the frames still waiting and closes the file.
+     *
+     * @throws IOException If any write failed; frames recorded after that were dropped.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        pendingBuffers.add(endOfRecording);
+        try {
+            writer.join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        if (writeException != null) {
+            throw writeException;
+        }
+    }
+
+    /**
+     * Copies the luminance plane of the frame row by row, leaving out the padding between rows.
+     */
+    private static void putLuminance(Frame frame, ByteBuffer buffer) {
+        ByteBuffer plane = frame.getLuminance().duplicate();
+        int width = frame.getWidth();
+        for (int y = 0; y < frame.getHeight(); y++) {
+            int rowStart = y * frame.getRowStride();
+            plane.limit(rowStart + width).position(rowStart);
+            buffer.put(plane);
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            ByteBuffer buffer;
+            try {
+                buffer = pendingBuffers.take();
+            } catch (InterruptedException ie) {
+                return;
+            }
+            if (buffer == endOfRecording) {
+                return;
+            }
+            if (writeException == null) {
+                try {
+                    writeFully(buffer);
+                    recordedCount.incrementAndGet();
+                } catch (IOException ioe) {
+                    writeException = ioe;
+                }
+            }
+            freeBuffers.add(buffer);
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+}
@@ -0,0 +1,189 @@
+package com.acker.simplezxing.core;
+
+import com.google.zxing.Result;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Plays back a file written by {@link FrameRecorder}, so that field captures can be decoded again
+ * and again. The file is memory-mapped a window at a time rather than read, and only the luminance
+ * of each frame is copied out, into a buffer reused from one frame to the next.
+ * <p>
+ * Not thread safe.
+ */
+public final class FrameReplayer implements Closeable {
+
+    /**
+     * How much of the file is mapped at once.
+     */
+    private static final long WINDOW_SIZE = 64L * 1024L * 1024L;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long size;
+    private long position;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private byte[] luminances;
+
+    public FrameReplayer(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        channel = this.file.getChannel();
+        size = channel.size();
+        if (size < FrameRecorder.FILE_HEADER_SIZE) {
+            close();
+            throw new IOException("Not a frame recording: " + file);
+        }
+        map(0L, FrameRecorder.FILE_HEADER_SIZE);
+        int magic = window.getInt(0);
+        int version = window.getInt(4);
+        if (magic != FrameRecorder.MAGIC || version != FrameRecorder.VERSION) {
+            close();
+            throw new IOException("Not a frame recording, or an unsupported version: " + file);
+        }
+        position = FrameRecorder.FILE_HEADER_SIZE;
+    }
+
+    /**
+     * Reads the next frame.
+     *
+     * @return The frame, whose data is only valid until the next call; or null at the end of the file.
+     * @throws IOException If the file is truncated or corrupt.
+     */
+    public RecordedFrame next() throws IOException {
+        if (position + FrameRecorder.RECORD_HEADER_SIZE > size) {
+            return null;
+        }
+        map(position, FrameRecorder.RECORD_HEADER_SIZE);
+        int offset = (int) (position - windowStart);
+        long timestampNanos = window.getLong(offset);
+        int width = window.getInt(offset + 8);
+        int height = window.getInt(offset + 12);
+        int rotation = window.getInt(offset + 16);
+        int left = window.getInt(offset + 20);
+        int top = window.getInt(offset + 24);
+        int scanWidth = window.getInt(offset + 28);
+        int scanHeight = window.getInt(offset + 32);
+        int dataLength = window.getInt(offset + 36);
+        int area = width * height;
+        if (width <= 0 || height <= 0 || dataLength < area
+                || position + FrameRecorder.RECORD_HEADER_SIZE + dataLength > size) {
+            throw new IOException("Corrupt frame at " + position);
+        }
+        long dataPosition = position + FrameRecorder.RECORD_HEADER_SIZE;
+        map(dataPosition, area);
+        if (luminances == null || luminances.length < area) {
+            luminances = new byte[area];
+        }
+        window.position((int) (dataPosition - windowStart));
+        window.get(luminances, 0, area);
+        position = dataPosition + dataLength;
+        return new RecordedFrame(timestampNanos, new Frame(luminances, width, height, rotation, timestampNanos),
+                new ScanArea(left, top, scanWidth, scanHeight));
+    }
+
+    /**
+     * Decodes every remaining frame of the file.
+     *
+     * @param decoder  What to decode with.
+     * @param realTime Whether to keep to the pace the frames were recorded at; if not, frames are
+     *                 decoded as fast as possible.
+     * @param listener Told about each frame as it is decoded.
+     */
+    public void replay(FrameDecoder decoder, boolean realTime, Listener listener)
+            throws IOException, InterruptedException {
+        long firstTimestamp = 0L;
+        long startNanos = 0L;
+        boolean first = true;
+        RecordedFrame recordedFrame;
+        while ((recordedFrame = next()) != null) {
+            if (realTime) {
+                if (first) {
+                    firstTimestamp = recordedFrame.getTimestampNanos();
+                    startNanos = System.nanoTime();
+                } else {
+                    long delayNanos = recordedFrame.getTimestampNanos() - firstTimestamp
+                            - (System.nanoTime() - startNanos);
+                    if (delayNanos > 0L) {
+                        Thread.sleep(delayNanos / 1000000L, (int) (delayNanos % 1000000L));
+                    }
+                }
+            }
+            first = false;
+            long decodeStart = System.nanoTime();
+            Result result = decoder.decode(recordedFrame.getFrame(), recordedFrame.getScanArea());
+            long decodeNanos = System.nanoTime() - decodeStart;
+            decoder.awaitIdle();
+            listener.onFrameDecoded(recordedFrame, result, decodeNanos);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        file.close();
+    }
+
+    /**
+     * Makes sure the given range of the file is within {@link #window}.
+     */
+    private void map(long start, int length) throws IOException {
+        if (window != null && start >= windowStart && start + length <= windowStart + window.capacity()) {
+            return;
+        }
+        long mappedLength = Math.min(Math.max(WINDOW_SIZE, length), size - start);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, mappedLength);
+        windowStart = start;
+    }
+
+    /**
+     * Told about each frame by {@link #replay}.
+     */
+    public interface Listener {
+
+        /**
+         * @param result      The barcode found, or null.
+         * @param decodeNanos How long decoding took.
+         */
+        void onFrameDecoded(RecordedFrame frame, Result result, long decodeNanos);
+
+    }
+
+    /**
+     * A frame read back from a recording.
+     */
+    public static final class RecordedFrame {
+
+        private final long timestampNanos;
+        private final Frame frame;
+        private final ScanArea scanArea;
+
+        RecordedFrame(long timestampNanos, Frame frame, ScanArea scanArea) {
+            this.timestampNanos = timestampNanos;
+            this.frame = frame;
+            this.scanArea = scanArea;
+        }
+
+        public long getTimestampNanos() {
+            return timestampNanos;
+        }
+
+        /**
+         * @return The frame; holds the luminance only.
+         */
+        public Frame getFrame() {
+            return frame;
+        }
+
+        public ScanArea getScanArea() {
+            return scanArea;
+        }
+
+    }
+
+}
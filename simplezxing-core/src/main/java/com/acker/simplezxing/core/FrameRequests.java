@@ -0,0 +1,49 @@
+package com.acker.simplezxing.core;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * The consumers waiting for a frame from a {@link FrameSource}, oldest first, as the source serves
+ * them: one frame each, and a consumer already waiting is not queued again.
+ * <p>
+ * Not thread safe: guarded by the lock of the source which owns it.
+ */
+public final class FrameRequests {
+
+    private final Queue<FrameSource.Consumer> consumers;
+
+    /**
+     * @param consumerCount How many consumers will ask at the same time.
+     */
+    public FrameRequests(int consumerCount) {
+        consumers = new ArrayDeque<>(consumerCount);
+    }
+
+    /**
+     * Queues the consumer for the next frame, unless it is waiting already.
+     */
+    public void add(FrameSource.Consumer consumer) {
+        for (FrameSource.Consumer waiting : consumers) {
+            if (waiting == consumer) {
+                return;
+            }
+        }
+        consumers.add(consumer);
+    }
+
+    /**
+     * @return The consumer waiting longest, no longer waiting; or null if none is.
+     */
+    public FrameSource.Consumer poll() {
+        return consumers.poll();
+    }
+
+    /**
+     * Drops every request, for frames which stopped.
+     */
+    public void clear() {
+        consumers.clear();
+    }
+
+}
@@ -0,0 +1,38 @@
+package com.acker.simplezxing.core;
+
+/**
+ * Where the decoders get their frames from, one request at a time: a camera, or anything else
+ * delivering {@link Frame}s, such as a recording or a fake one on the JVM.
+ * <p>
+ * Both methods may be called from any thread, and must not wait on the camera.
+ */
+public interface FrameSource {
+
+    /**
+     * Hands the consumer the next frame. Consumers which ask at the same time are served in order,
+     * one frame each; a consumer already waiting is not queued again. Requests made before frames
+     * flow are served once they do, and stopping the frames drops them.
+     */
+    void requestFrame(Consumer consumer);
+
+    /**
+     * Gives a frame handed out by {@link #requestFrame} back, to be filled again. The frame must not
+     * be read afterwards.
+     */
+    void releaseFrame(Frame frame);
+
+    /**
+     * Takes the frames it asked a {@link FrameSource} for.
+     */
+    interface Consumer {
+
+        /**
+         * Called on whichever thread the frame arrived on, so should only hand it over to be decoded.
+         *
+         * @param frame The frame, the consumer's until it is released.
+         */
+        void onFrame(Frame frame);
+
+    }
+
+}
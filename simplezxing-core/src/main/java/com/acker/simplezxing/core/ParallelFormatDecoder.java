@@ -0,0 +1,171 @@
+package com.acker.simplezxing.core;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.Result;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Decodes one frame with a separate reader per format family (1D, QR Code, Data Matrix, Aztec and
+ * PDF417), all running at the same time on the same read-only luminance data. The first family to
+ * find a barcode wins, so a slow PDF417 attempt no longer holds up a QR Code result. The frame is
+ * binarized once for all families but the 1D one, see {@link BinarizerSelector.SharedBitmaps}.
+ * <p>
+ * ZXing readers cannot be interrupted. Families which have not started when another one succeeds are
+ * skipped; those already running are left to finish in the background and are waited for by
+ * {@link #awaitIdle()}, before their readers or the frame data are touched again.
+ * <p>
+ * Not thread safe: meant to be owned by one decode thread.
+ */
+final class ParallelFormatDecoder {
+
+    private final List<MultiFormatReader> readers;
+    private final List<Set<BarcodeFormat>> readerFormats;
+    /**
+     * Whether each reader asks for the whole binarized frame, that is whether it is not the 1D one.
+     */
+    private final List<Boolean> readerReadsMatrix;
+    private final Executor executor;
+    private final DecodeMetrics metrics;
+    private CountDownLatch running;
+
+    /**
+     * @param hints   Hints for all readers; families without any of its POSSIBLE_FORMATS are left out.
+     * @param metrics Where the families time binarizing and decoding, may be null.
+     */
+    ParallelFormatDecoder(Map<DecodeHintType, ?> hints, Executor executor, DecodeMetrics metrics) {
+        @SuppressWarnings("unchecked")
+        Collection<BarcodeFormat> possibleFormats = (Collection<BarcodeFormat>) hints.get(DecodeHintType.POSSIBLE_FORMATS);
+        readers = new ArrayList<>(DecodeFormatManager.FORMAT_FAMILIES.size());
+        readerFormats = new ArrayList<>(DecodeFormatManager.FORMAT_FAMILIES.size());
+        readerReadsMatrix = new ArrayList<>(DecodeFormatManager.FORMAT_FAMILIES.size());
+        for (Set<BarcodeFormat> family : DecodeFormatManager.FORMAT_FAMILIES) {
+            Set<BarcodeFormat> formats = EnumSet.copyOf(family);
+            if (possibleFormats != null) {
+                formats.retainAll(possibleFormats);
+            }
+            if (formats.isEmpty()) {
+                continue;
+            }
+            Map<DecodeHintType, Object> familyHints = new EnumMap<>(DecodeHintType.class);
+            familyHints.putAll(hints);
+            familyHints.put(DecodeHintType.POSSIBLE_FORMATS, formats);
+            MultiFormatReader reader = new MultiFormatReader();
+            reader.setHints(familyHints);
+            readers.add(reader);
+            readerFormats.add(formats);
+            readerReadsMatrix.add(!DecodeFormatManager.ONE_D_FORMATS.containsAll(formats));
+        }
+        this.executor = executor;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param source  The frame to decode. Its luminance matrix is read once and then shared, and so
+     *                is each binarization of it.
+     * @param formats The formats wanted for this frame; only families with at least one of them run.
+     * @param globalHistogramFirst Whether each family tries the cheap binarizer before HybridBinarizer,
+     *                             see {@link BinarizerSelector}.
+     * @return The first barcode found by any family, or null if none found one.
+     */
+    Result decode(LuminanceSource source, Set<BarcodeFormat> formats, final boolean globalHistogramFirst) {
+        awaitIdle();
+        List<Integer> frameReaders = new ArrayList<>(readers.size());
+        for (int i = 0; i < readers.size(); i++) {
+            if (!Collections.disjoint(readerFormats.get(i), formats)) {
+                frameReaders.add(i);
+            }
+        }
+        if (frameReaders.isEmpty()) {
+            return null;
+        }
+        int width = source.getWidth();
+        int height = source.getHeight();
+        final LuminanceSource sharedSource = new PlanarYUVLuminanceSource(source.getMatrix(), width, height,
+                0, 0, width, height, false);
+        final BinarizerSelector.SharedBitmaps sharedBitmaps = new BinarizerSelector.SharedBitmaps(sharedSource,
+                metrics);
+        final AtomicBoolean found = new AtomicBoolean();
+        final CountDownLatch latch = new CountDownLatch(frameReaders.size());
+        running = latch;
+        // A fresh one per frame, so results left over from the last frame are never picked up
+        CompletionService<Result> completionService = new ExecutorCompletionService<>(executor);
+        int submitted = 0;
+        for (int i : frameReaders) {
+            final MultiFormatReader reader = readers.get(i);
+            final boolean readsMatrix = readerReadsMatrix.get(i);
+            try {
+                completionService.submit(new Callable<Result>() {
+                    @Override
+                    public Result call() {
+                        try {
+                            if (found.get()) {
+                                return null;
+                            }
+                            Result result = readsMatrix
+                                    ? BinarizerSelector.decode(reader, sharedBitmaps, globalHistogramFirst, metrics)
+                                    : BinarizerSelector.decode(reader, sharedSource, globalHistogramFirst, false,
+                                    metrics);
+                            if (result != null) {
+                                found.set(true);
+                            }
+                            return result;
+                        } finally {
+                            latch.countDown();
+                        }
+                    }
+                });
+                submitted++;
+            } catch (RejectedExecutionException ree) {
+                // Shutting down
+                latch.countDown();
+            }
+        }
+        try {
+            for (int i = 0; i < submitted; i++) {
+                Result result = completionService.take().get();
+                if (result != null) {
+                    return result;
+                }
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            // continue
+        }
+        return null;
+    }
+
+    /**
+     * Blocks until no family is working on the last frame any more, so its data can be reused.
+     */
+    void awaitIdle() {
+        CountDownLatch latch = running;
+        if (latch != null) {
+            try {
+                latch.await();
+            } catch (InterruptedException ie) {
+                // continue
+            }
+            running = null;
+        }
+    }
+
+}
@@ -0,0 +1,144 @@
+package com.acker.simplezxing.core;
+
+/**
+ * Narrows decoding down to where a barcode was last seen. The readers report the points they
+ * locate as they go (finder patterns, guard patterns); once a frame yields any, the next frames
+ * decode only a padded box around them instead of the whole scan area. Each frame which yields
+ * none widens the box by a step on every side, until it is the whole scan area again.
+ * <p>
+ * Every {@link #FULL_AREA_INTERVAL} frames the whole scan area is decoded anyway, so that a stray
+ * candidate cannot hide a barcode elsewhere for long. A change of scan area drops the box.
+ * <p>
+ * Thread safe: meant to be shared by all decoders of a scanner, so that what one of them sees
+ * narrows the frames of the others too.
+ */
+public final class RegionOfInterestTracker {
+
+    /**
+     * While a box is tracked, every this many frames are decoded over the whole scan area.
+     */
+    static final int FULL_AREA_INTERVAL = 8;
+    /**
+     * The box extends beyond the candidates on every side by this share of their extent.
+     */
+    private static final float PADDING_RATIO = 0.5f;
+    /**
+     * The padding is at least this fraction of the longer side of the scan area, since a single
+     * candidate has no extent and the ends of a 1D row have no height.
+     */
+    private static final int MIN_PADDING_DIVISOR = 8;
+    /**
+     * Each frame without candidates widens every side of the box by this fraction of the scan area.
+     */
+    private static final int WIDEN_STEP_DIVISOR = 8;
+
+    /**
+     * The scan area the box lies in, null when there is no box.
+     */
+    private ScanArea scanArea;
+    /**
+     * The box, in the coordinates of the scan area.
+     */
+    private int left;
+    private int top;
+    private int right;
+    private int bottom;
+    /**
+     * The box, in the coordinates of the frame as displayed; kept so frames do not allocate one each.
+     */
+    private ScanArea region;
+    private int framesSinceFullArea;
+    private long narrowedFrameCount;
+    private long fullAreaFrameCount;
+
+    /**
+     * @param scanArea The scan area of the next frame.
+     * @return The part of the frame to decode, in the coordinates of the frame as displayed: the box
+     * if there is one, else the scan area itself.
+     */
+    public synchronized ScanArea getRegion(ScanArea scanArea) {
+        if (region == null || !scanArea.equals(this.scanArea) || ++framesSinceFullArea >= FULL_AREA_INTERVAL) {
+            framesSinceFullArea = 0;
+            fullAreaFrameCount++;
+            return scanArea;
+        }
+        narrowedFrameCount++;
+        return region;
+    }
+
+    /**
+     * @return How many frames were decoded over a box only.
+     */
+    public synchronized long getNarrowedFrameCount() {
+        return narrowedFrameCount;
+    }
+
+    /**
+     * @return How many frames were decoded over the whole scan area.
+     */
+    public synchronized long getFullAreaFrameCount() {
+        return fullAreaFrameCount;
+    }
+
+    /**
+     * Forgets the box, so the next frame is decoded over the whole scan area.
+     */
+    public synchronized void reset() {
+        scanArea = null;
+        region = null;
+    }
+
+    /**
+     * Centres the box on the candidates of a frame, which lie from minX to maxX and from minY to
+     * maxY in the coordinates of the scan area.
+     *
+     * @param scanArea The scan area of the frame.
+     */
+    synchronized void found(ScanArea scanArea, float minX, float minY, float maxX, float maxY) {
+        float padding = Math.max(Math.max(maxX - minX, maxY - minY) * PADDING_RATIO,
+                Math.max(scanArea.getWidth(), scanArea.getHeight()) / MIN_PADDING_DIVISOR);
+        setBox(scanArea, (int) (minX - padding), (int) (minY - padding),
+                (int) Math.ceil(maxX + padding), (int) Math.ceil(maxY + padding));
+    }
+
+    /**
+     * Widens the box by a step, after a frame without candidates.
+     *
+     * @param scanArea The scan area of the frame.
+     */
+    synchronized void missed(ScanArea scanArea) {
+        if (region == null || !scanArea.equals(this.scanArea)) {
+            reset();
+            return;
+        }
+        int stepX = Math.max(1, scanArea.getWidth() / WIDEN_STEP_DIVISOR);
+        int stepY = Math.max(1, scanArea.getHeight() / WIDEN_STEP_DIVISOR);
+        setBox(scanArea, left - stepX, top - stepY, right + stepX, bottom + stepY);
+    }
+
+    private void setBox(ScanArea scanArea, int newLeft, int newTop, int newRight, int newBottom) {
+        newLeft = Math.max(0, newLeft);
+        newTop = Math.max(0, newTop);
+        newRight = Math.min(scanArea.getWidth(), newRight);
+        newBottom = Math.min(scanArea.getHeight(), newBottom);
+        if (newRight <= newLeft || newBottom <= newTop
+                || (newLeft == 0 && newTop == 0
+                && newRight == scanArea.getWidth() && newBottom == scanArea.getHeight())) {
+            // Nothing left to narrow down to
+            reset();
+            return;
+        }
+        if (region != null && scanArea.equals(this.scanArea)
+                && newLeft == left && newTop == top && newRight == right && newBottom == bottom) {
+            return;
+        }
+        this.scanArea = scanArea;
+        left = newLeft;
+        top = newTop;
+        right = newRight;
+        bottom = newBottom;
+        region = new ScanArea(scanArea.getLeft() + newLeft, scanArea.getTop() + newTop,
+                newRight - newLeft, newBottom - newTop);
+    }
+
+}
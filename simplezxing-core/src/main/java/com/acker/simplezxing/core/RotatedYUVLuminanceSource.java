@@ -0,0 +1,253 @@
+package com.acker.simplezxing.core;
+
+import com.google.zxing.LuminanceSource;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link LuminanceSource} which presents the Y plane of a camera preview buffer (NV21 or any other
+ * planar YUV format, or a Y plane of its own in a {@link ByteBuffer}) rotated clockwise by 0, 90, 180
+ * or 270 degrees and cropped, without copying the buffer. Pixels are located with index arithmetic
+ * when ZXing asks for them, so only the rows the readers actually pull are ever touched.
+ * <p>
+ * Every pixel (x, y) of this source lives at {@code origin + x * xStep + y * yStep} in the
+ * underlying buffer, which makes rotating and cropping a matter of adjusting those three numbers.
+ * <p>
+ * A source over a ByteBuffer keeps a position of its own in it, so it must be read by one thread
+ * at a time; sources over an array may be shared.
+ */
+public final class RotatedYUVLuminanceSource extends LuminanceSource {
+
+    private final byte[] yuvData;
+    /**
+     * A view of the Y plane with a position of its own, null when reading {@link #yuvData}.
+     */
+    private final ByteBuffer plane;
+    private final int origin;
+    private final int xStep;
+    private final int yStep;
+    private final byte[] matrixBuffer;
+
+    /**
+     * @param yuvData      The preview buffer in the camera's native orientation.
+     * @param dataWidth    The width of the preview buffer.
+     * @param dataHeight   The height of the preview buffer.
+     * @param rotation     Clockwise rotation to apply to the buffer, one of 0, 90, 180 and 270.
+     * @param left         The left of the crop rectangle, in rotated coordinates.
+     * @param top          The top of the crop rectangle, in rotated coordinates.
+     * @param width        The width of the crop rectangle.
+     * @param height       The height of the crop rectangle.
+     * @param matrixBuffer Optional buffer for {@link #getMatrix()} to fill instead of allocating one;
+     *                     may be null or too small, in which case a new array is allocated.
+     */
+    public RotatedYUVLuminanceSource(byte[] yuvData,
+                                     int dataWidth,
+                                     int dataHeight,
+                                     int rotation,
+                                     int left,
+                                     int top,
+                                     int width,
+                                     int height,
+                                     byte[] matrixBuffer) {
+        this(yuvData, null, dataWidth, dataWidth, dataHeight, rotation, left, top, width, height, matrixBuffer);
+    }
+
+    /**
+     * @param plane        The Y plane in the camera's native orientation, read from index 0 and
+     *                     never moved.
+     * @param rowStride    How many bytes apart the rows of the plane start.
+     * @param dataWidth    The width of the plane.
+     * @param dataHeight   The height of the plane.
+     * @param rotation     Clockwise rotation to apply to the plane, one of 0, 90, 180 and 270.
+     * @param left         The left of the crop rectangle, in rotated coordinates.
+     * @param top          The top of the crop rectangle, in rotated coordinates.
+     * @param width        The width of the crop rectangle.
+     * @param height       The height of the crop rectangle.
+     * @param matrixBuffer Optional buffer for {@link #getMatrix()} to fill instead of allocating one;
+     *                     may be null or too small, in which case a new array is allocated.
+     */
+    public RotatedYUVLuminanceSource(ByteBuffer plane,
+                                     int rowStride,
+                                     int dataWidth,
+                                     int dataHeight,
+                                     int rotation,
+                                     int left,
+                                     int top,
+                                     int width,
+                                     int height,
+                                     byte[] matrixBuffer) {
+        this(null, plane.duplicate(), rowStride, dataWidth, dataHeight, rotation, left, top, width, height,
+                matrixBuffer);
+    }
+
+    private RotatedYUVLuminanceSource(byte[] yuvData,
+                                      ByteBuffer plane,
+                                      int rowStride,
+                                      int dataWidth,
+                                      int dataHeight,
+                                      int rotation,
+                                      int left,
+                                      int top,
+                                      int width,
+                                      int height,
+                                      byte[] matrixBuffer) {
+        super(width, height);
+        int rotatedWidth;
+        int rotatedHeight;
+        int rotatedOrigin;
+        int rotatedXStep;
+        int rotatedYStep;
+        switch (rotation) {
+            case 0:
+                rotatedWidth = dataWidth;
+                rotatedHeight = dataHeight;
+                rotatedOrigin = 0;
+                rotatedXStep = 1;
+                rotatedYStep = rowStride;
+                break;
+            case 90:
+                // Rotated pixel (x, y) is buffer pixel (y, dataHeight - x - 1)
+                rotatedWidth = dataHeight;
+                rotatedHeight = dataWidth;
+                rotatedOrigin = (dataHeight - 1) * rowStride;
+                rotatedXStep = -rowStride;
+                rotatedYStep = 1;
+                break;
+            case 180:
+                rotatedWidth = dataWidth;
+                rotatedHeight = dataHeight;
+                rotatedOrigin = (dataHeight - 1) * rowStride + dataWidth - 1;
+                rotatedXStep = -1;
+                rotatedYStep = -rowStride;
+                break;
+            case 270:
+                // Rotated pixel (x, y) is buffer pixel (dataWidth - y - 1, x)
+                rotatedWidth = dataHeight;
+                rotatedHeight = dataWidth;
+                rotatedOrigin = dataWidth - 1;
+                rotatedXStep = rowStride;
+                rotatedYStep = -1;
+                break;
+            default:
+                throw new IllegalArgumentException("Bad rotation: " + rotation);
+        }
+        if (left < 0 || top < 0 || left + width > rotatedWidth || top + height > rotatedHeight) {
+            throw new IllegalArgumentException("Crop rectangle does not fit within image data.");
+        }
+        this.yuvData = yuvData;
+        this.plane = plane;
+        this.origin = rotatedOrigin + left * rotatedXStep + top * rotatedYStep;
+        this.xStep = rotatedXStep;
+        this.yStep = rotatedYStep;
+        this.matrixBuffer = matrixBuffer;
+    }
+
+    private RotatedYUVLuminanceSource(byte[] yuvData, ByteBuffer plane, int origin, int xStep, int yStep,
+                                      int width, int height) {
+        super(width, height);
+        this.yuvData = yuvData;
+        // Not shared with the source this one was derived from, which may be read by another thread
+        this.plane = plane == null ? null : plane.duplicate();
+        this.origin = origin;
+        this.xStep = xStep;
+        this.yStep = yStep;
+        this.matrixBuffer = null;
+    }
+
+    @Override
+    public byte[] getRow(int y, byte[] row) {
+        if (y < 0 || y >= getHeight()) {
+            throw new IllegalArgumentException("Requested row is outside the image: " + y);
+        }
+        int width = getWidth();
+        if (row == null || row.length < width) {
+            row = new byte[width];
+        }
+        copyRow(origin + y * yStep, row, 0, width);
+        return row;
+    }
+
+    @Override
+    public byte[] getMatrix() {
+        int width = getWidth();
+        int height = getHeight();
+        // If the source is the whole, unrotated buffer, just return it.
+        if (yuvData != null && origin == 0 && xStep == 1 && yStep == width && width * height <= yuvData.length) {
+            return yuvData;
+        }
+        int area = width * height;
+        byte[] matrix = matrixBuffer != null && matrixBuffer.length >= area ? matrixBuffer : new byte[area];
+        int inputOffset = origin;
+        for (int y = 0; y < height; y++) {
+            copyRow(inputOffset, matrix, y * width, width);
+            inputOffset += yStep;
+        }
+        return matrix;
+    }
+
+    /**
+     * Copies row y into the output at the given offset, like {@link #getRow} without a row array of
+     * its own.
+     */
+    void readRow(int y, byte[] output, int outputOffset) {
+        copyRow(origin + y * yStep, output, outputOffset, getWidth());
+    }
+
+    private void copyRow(int inputOffset, byte[] output, int outputOffset, int width) {
+        if (plane != null) {
+            copyPlaneRow(inputOffset, output, outputOffset, width);
+        } else if (xStep == 1) {
+            System.arraycopy(yuvData, inputOffset, output, outputOffset, width);
+        } else {
+            byte[] yuv = yuvData;
+            int step = xStep;
+            int end = outputOffset + width;
+            for (int x = outputOffset; x < end; x++) {
+                output[x] = yuv[inputOffset];
+                inputOffset += step;
+            }
+        }
+    }
+
+    private void copyPlaneRow(int inputOffset, byte[] output, int outputOffset, int width) {
+        ByteBuffer yuv = plane;
+        if (xStep == 1) {
+            yuv.position(inputOffset);
+            yuv.get(output, outputOffset, width);
+        } else {
+            int step = xStep;
+            int end = outputOffset + width;
+            for (int x = outputOffset; x < end; x++) {
+                output[x] = yuv.get(inputOffset);
+                inputOffset += step;
+            }
+        }
+    }
+
+    @Override
+    public boolean isCropSupported() {
+        return true;
+    }
+
+    @Override
+    public LuminanceSource crop(int left, int top, int width, int height) {
+        if (left < 0 || top < 0 || left + width > getWidth() || top + height > getHeight()) {
+            throw new IllegalArgumentException("Crop rectangle does not fit within image data.");
+        }
+        return new RotatedYUVLuminanceSource(yuvData, plane, origin + left * xStep + top * yStep, xStep, yStep,
+                width, height);
+    }
+
+    @Override
+    public boolean isRotateSupported() {
+        return true;
+    }
+
+    @Override
+    public LuminanceSource rotateCounterClockwise() {
+        // New pixel (x, y) is old pixel (width - y - 1, x)
+        return new RotatedYUVLuminanceSource(yuvData, plane, origin + (getWidth() - 1) * xStep, yStep, -xStep,
+                getHeight(), getWidth());
+    }
+
+}
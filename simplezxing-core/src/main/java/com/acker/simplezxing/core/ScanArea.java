@@ -0,0 +1,112 @@
+package com.acker.simplezxing.core;
+
+/**
+ * The part of a frame to decode, in the coordinates of the frame as displayed. Immutable.
+ */
+public final class ScanArea {
+
+    private final int left;
+    private final int top;
+    private final int width;
+    private final int height;
+
+    public ScanArea(int left, int top, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Bad size: " + width + 'x' + height);
+        }
+        this.left = left;
+        this.top = top;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * @return The whole of a frame of the given size.
+     */
+    public static ScanArea fullFrame(int width, int height) {
+        return new ScanArea(0, 0, width, height);
+    }
+
+    /**
+     * Maps a rectangle on screen onto the preview frame shown full screen, each axis scaled
+     * separately.
+     *
+     * @param screenWidth   The width of the screen.
+     * @param screenHeight  The height of the screen.
+     * @param previewWidth  The width of the preview frame in the camera's orientation, which is
+     *                      landscape; in portrait it runs along the screen's height.
+     * @param previewHeight The height of the preview frame in the camera's orientation.
+     * @return The scan area in terms of the preview frame as displayed.
+     */
+    public static ScanArea fromScreen(int left, int top, int right, int bottom,
+                                      int screenWidth, int screenHeight,
+                                      int previewWidth, int previewHeight) {
+        int displayedWidth;
+        int displayedHeight;
+        if (screenWidth < screenHeight) {
+            // portrait
+            displayedWidth = previewHeight;
+            displayedHeight = previewWidth;
+        } else {
+            // landscape
+            displayedWidth = previewWidth;
+            displayedHeight = previewHeight;
+        }
+        int previewLeft = left * displayedWidth / screenWidth;
+        int previewRight = right * displayedWidth / screenWidth;
+        int previewTop = top * displayedHeight / screenHeight;
+        int previewBottom = bottom * displayedHeight / screenHeight;
+        return new ScanArea(previewLeft, previewTop, previewRight - previewLeft, previewBottom - previewTop);
+    }
+
+    public int getLeft() {
+        return left;
+    }
+
+    public int getTop() {
+        return top;
+    }
+
+    public int getRight() {
+        return left + width;
+    }
+
+    public int getBottom() {
+        return top + height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return Whether the area lies entirely within a frame of the given size.
+     */
+    public boolean fitsWithin(int frameWidth, int frameHeight) {
+        return left >= 0 && top >= 0 && getRight() <= frameWidth && getBottom() <= frameHeight;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ScanArea)) {
+            return false;
+        }
+        ScanArea other = (ScanArea) o;
+        return left == other.left && top == other.top && width == other.width && height == other.height;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((left * 31 + top) * 31 + width) * 31 + height;
+    }
+
+    @Override
+    public String toString() {
+        return "ScanArea(" + left + ", " + top + " - " + getRight() + ", " + getBottom() + ')';
+    }
+
+}
@@ -0,0 +1,196 @@
+package com.acker.simplezxing.core;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Result;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A worker fed by a fake source gives every frame back exactly once, whether it decoded the frame,
+ * dropped it while paused, or quit before getting to it.
+ */
+public class DecodeWorkerTest {
+
+    private static final ScanArea SCAN_AREA = ScanArea.fullFrame(SyntheticFrames.DISPLAY_WIDTH,
+            SyntheticFrames.DISPLAY_HEIGHT);
+
+    /**
+     * The loop each decode thread runs: ask for a frame, decode it, give it back and ask again.
+     */
+    @Test
+    public void decodesAndReleasesEveryFrame() {
+        FakeFrameSource source = new FakeFrameSource();
+        QueueThread thread = new QueueThread();
+        RecordingHost host = new RecordingHost(source);
+        host.worker = newWorker(source, thread, host);
+        byte[] upright = SyntheticFrames.renderUpright("fake camera", BarcodeFormat.QR_CODE, 180, 180);
+        source.requestFrame(host.worker);
+        for (int rotation : SyntheticFrames.ROTATIONS) {
+            byte[] sensor = SyntheticFrames.toSensor(upright, rotation);
+            assertTrue(source.deliver(SyntheticFrames.arrayFrame(sensor, rotation, 0L)));
+            thread.runAll();
+            assertTrue(source.deliver(SyntheticFrames.planeFrame(sensor, rotation, 0L)));
+            thread.runAll();
+        }
+
+        assertEquals(SyntheticFrames.ROTATIONS.length * 2, host.results.size());
+        for (String result : host.results) {
+            assertEquals("fake camera", result);
+        }
+        assertEquals(0, source.getOutstandingCount());
+        assertEquals(SyntheticFrames.ROTATIONS.length * 2, source.getReleasedFrames().size());
+    }
+
+    @Test
+    public void pausedWorkerReleasesFramesUndecoded() {
+        FakeFrameSource source = new FakeFrameSource();
+        QueueThread thread = new QueueThread();
+        RecordingHost host = new RecordingHost(source);
+        host.worker = newWorker(source, thread, host);
+        host.decoding = false;
+        source.requestFrame(host.worker);
+        assertTrue(source.deliver(qrCodeFrame()));
+        thread.runAll();
+
+        assertTrue(host.results.isEmpty());
+        assertEquals(0, source.getOutstandingCount());
+        assertEquals(1, source.getReleasedFrames().size());
+    }
+
+    /**
+     * Frames still queued for the thread when it quits would be dropped with its queue.
+     */
+    @Test
+    public void quitReleasesWaitingAndLaterFrames() {
+        FakeFrameSource source = new FakeFrameSource();
+        QueueThread thread = new QueueThread();
+        RecordingHost host = new RecordingHost(source);
+        host.worker = newWorker(source, thread, host);
+        source.requestFrame(host.worker);
+        assertTrue(source.deliver(qrCodeFrame()));
+        host.worker.quit();
+        assertEquals(0, source.getOutstandingCount());
+
+        // Run after all, the frame is not decoded nor released again
+        thread.runAll();
+        assertTrue(host.results.isEmpty());
+        source.requestFrame(host.worker);
+        assertTrue(source.deliver(qrCodeFrame()));
+
+        assertEquals(0, thread.tasks.size());
+        assertEquals(0, source.getOutstandingCount());
+        assertEquals(2, source.getReleasedFrames().size());
+    }
+
+    @Test
+    public void frameRejectedByThreadIsReleased() {
+        FakeFrameSource source = new FakeFrameSource();
+        QueueThread thread = new QueueThread();
+        RecordingHost host = new RecordingHost(source);
+        host.worker = newWorker(source, thread, host);
+        thread.gone = true;
+        source.requestFrame(host.worker);
+        assertTrue(source.deliver(qrCodeFrame()));
+
+        assertTrue(host.results.isEmpty());
+        assertEquals(0, source.getOutstandingCount());
+        assertEquals(1, source.getReleasedFrames().size());
+    }
+
+    private static DecodeWorker newWorker(FrameSource source, Executor thread, DecodeWorker.Host host) {
+        FrameDecoder decoder = new FrameDecoder(new FormatScheduler(null, null), null, null, false, false, null,
+                null, null);
+        return new DecodeWorker(source, decoder, thread, host, null, null, 0, null);
+    }
+
+    private static Frame qrCodeFrame() {
+        byte[] upright = SyntheticFrames.renderUpright("fake camera", BarcodeFormat.QR_CODE, 180, 180);
+        return SyntheticFrames.arrayFrame(SyntheticFrames.toSensor(upright, 90), 90, 0L);
+    }
+
+    /**
+     * A decode thread whose queue is run by the test.
+     */
+    private static final class QueueThread implements Executor {
+
+        final Queue<Runnable> tasks = new ArrayDeque<>();
+        boolean gone;
+
+        @Override
+        public void execute(Runnable command) {
+            if (gone) {
+                throw new RejectedExecutionException();
+            }
+            tasks.add(command);
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+
+    }
+
+    /**
+     * Asks for another frame after every report, as the activity does while previewing.
+     */
+    private static final class RecordingHost implements DecodeWorker.Host {
+
+        final FrameSource source;
+        final List<String> results = new ArrayList<>();
+        DecodeWorker worker;
+        boolean decoding = true;
+
+        RecordingHost(FrameSource source) {
+            this.source = source;
+        }
+
+        @Override
+        public boolean isDecoding() {
+            return decoding;
+        }
+
+        @Override
+        public ScanArea getScanArea(int displayWidth, int displayHeight) {
+            return SCAN_AREA;
+        }
+
+        @Override
+        public void onFrameDecoded(boolean decoded, boolean candidateFound, FrameQualityGate.Verdict verdict) {
+        }
+
+        @Override
+        public void onDecoded(Result result) {
+            results.add(result.getText());
+            source.requestFrame(worker);
+        }
+
+        @Override
+        public void onDecodedMultiple(ArrayList<DecodedBarcode> barcodes) {
+            for (DecodedBarcode barcode : barcodes) {
+                results.add(barcode.getText());
+            }
+            source.requestFrame(worker);
+        }
+
+        @Override
+        public void onDecodeFailed() {
+            results.add(null);
+            source.requestFrame(worker);
+        }
+
+    }
+
+}
@@ -0,0 +1,62 @@
+package com.acker.simplezxing.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A camera on the JVM: serves the frames it is given to the consumers waiting for one, on the
+ * calling thread, the way a camera backend serves preview frames on its own.
+ */
+final class FakeFrameSource implements FrameSource {
+
+    private final FrameRequests frameRequests = new FrameRequests(4);
+    private final Set<Frame> outstandingFrames = Collections.newSetFromMap(new IdentityHashMap<Frame, Boolean>());
+    private final List<Frame> releasedFrames = new ArrayList<>();
+
+    @Override
+    public synchronized void requestFrame(Consumer consumer) {
+        frameRequests.add(consumer);
+    }
+
+    @Override
+    public synchronized void releaseFrame(Frame frame) {
+        if (!outstandingFrames.remove(frame)) {
+            throw new IllegalStateException("Frame released twice, or never handed out");
+        }
+        releasedFrames.add(frame);
+    }
+
+    /**
+     * Hands the frame to the consumer waiting longest, as a camera does with each frame it takes.
+     *
+     * @return Whether any consumer was waiting; if not, the frame is dropped.
+     */
+    synchronized boolean deliver(Frame frame) {
+        Consumer consumer = frameRequests.poll();
+        if (consumer == null) {
+            return false;
+        }
+        outstandingFrames.add(frame);
+        consumer.onFrame(frame);
+        return true;
+    }
+
+    /**
+     * Drops the requests, as stopping the preview does.
+     */
+    synchronized void stop() {
+        frameRequests.clear();
+    }
+
+    synchronized int getOutstandingCount() {
+        return outstandingFrames.size();
+    }
+
+    synchronized List<Frame> getReleasedFrames() {
+        return new ArrayList<>(releasedFrames);
+    }
+
+}
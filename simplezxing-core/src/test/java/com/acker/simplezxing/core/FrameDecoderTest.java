@@ -0,0 +1,121 @@
+package com.acker.simplezxing.core;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Frames from either camera API, an NV21 buffer or a padded luminance plane, decode the same in
+ * every rotation, whether the format families are decoded in turn or in parallel, and large frames
+ * decode downsampled.
+ */
+public class FrameDecoderTest {
+
+    private static final int FULL_HD_WIDTH = 1920;
+    private static final int FULL_HD_HEIGHT = 1080;
+
+    private static FrameDecoder newDecoder() {
+        return new FrameDecoder(new FormatScheduler(null, null), null, null, false, false, null, null, null);
+    }
+
+    @Test
+    public void qrCodeDecodesAlikeFromArrayAndPlaneInEveryRotation() {
+        assertDecodesAlike("simplezxing", BarcodeFormat.QR_CODE, 180, 180);
+    }
+
+    /**
+     * 1D readers only read rows across the upright frame, so a wrong rotation would not decode.
+     */
+    @Test
+    public void code128DecodesAlikeFromArrayAndPlaneInEveryRotation() {
+        assertDecodesAlike("SIMPLEZXING-128", BarcodeFormat.CODE_128, 300, 100);
+    }
+
+    /**
+     * The matrix families share one binarized frame, which none of them may spoil for the others.
+     */
+    @Test
+    public void formatFamiliesDecodeInParallel() {
+        ExecutorService formatExecutor = Executors.newFixedThreadPool(2);
+        try {
+            // The Data Matrix writer draws one pixel modules whatever the size asked for
+            for (BarcodeFormat format : new BarcodeFormat[]{BarcodeFormat.QR_CODE, BarcodeFormat.AZTEC,
+                    BarcodeFormat.PDF_417, BarcodeFormat.CODE_128}) {
+                byte[] upright = SyntheticFrames.renderUpright("PARALLEL", format, 200, 100);
+                ScanArea scanArea = ScanArea.fullFrame(SyntheticFrames.DISPLAY_WIDTH, SyntheticFrames.DISPLAY_HEIGHT);
+                FrameDecoder decoder = new FrameDecoder(new FormatScheduler(null, null), null, formatExecutor, false,
+                        false, null, null, null);
+                for (int rotation : SyntheticFrames.ROTATIONS) {
+                    Result result = decoder.decode(SyntheticFrames.arrayFrame(
+                            SyntheticFrames.toSensor(upright, rotation), rotation, 0L), scanArea);
+                    decoder.awaitIdle();
+                    String message = format + " at " + rotation;
+                    assertNotNull(message, result);
+                    assertEquals(message, "PARALLEL", result.getText());
+                    assertEquals(message, format, result.getBarcodeFormat());
+                }
+            }
+        } finally {
+            formatExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Codes of an ordinary size must not need the full resolution retry of a later frame.
+     */
+    @Test
+    public void fullHdFrameDecodesFirstTimeDownsampled() {
+        assertDecodesFirstTimeDownsampled("https://github.com/acker/simplezxing", BarcodeFormat.QR_CODE, 200, 200);
+        assertDecodesFirstTimeDownsampled("SIMPLEZXING-128", BarcodeFormat.CODE_128, 300, 100);
+    }
+
+    private static void assertDecodesFirstTimeDownsampled(String contents, BarcodeFormat format, int width,
+                                                          int height) {
+        assertEquals(2, DownsampledLuminanceSource.getFactor(FULL_HD_WIDTH, FULL_HD_HEIGHT));
+        byte[] upright = SyntheticFrames.renderUpright(contents, format, width, height, FULL_HD_WIDTH,
+                FULL_HD_HEIGHT);
+        FrameDecoder decoder = new FrameDecoder(new FormatScheduler(null, null), null, null, false, true, null,
+                null, null);
+        Result result = decoder.decode(SyntheticFrames.arrayFrame(upright, FULL_HD_WIDTH, FULL_HD_HEIGHT, 0, 0L),
+                ScanArea.fullFrame(FULL_HD_WIDTH, FULL_HD_HEIGHT));
+        assertNotNull(format.toString(), result);
+        assertEquals(contents, result.getText());
+    }
+
+    private static void assertDecodesAlike(String contents, BarcodeFormat format, int width, int height) {
+        byte[] upright = SyntheticFrames.renderUpright(contents, format, width, height);
+        ScanArea scanArea = ScanArea.fullFrame(SyntheticFrames.DISPLAY_WIDTH, SyntheticFrames.DISPLAY_HEIGHT);
+        for (int rotation : SyntheticFrames.ROTATIONS) {
+            byte[] sensor = SyntheticFrames.toSensor(upright, rotation);
+            Result arrayResult = newDecoder().decode(SyntheticFrames.arrayFrame(sensor, rotation, 0L), scanArea);
+            Result planeResult = newDecoder().decode(SyntheticFrames.planeFrame(sensor, rotation, 0L), scanArea);
+            String message = format + " at " + rotation;
+            assertNotNull(message + " from the array", arrayResult);
+            assertNotNull(message + " from the plane", planeResult);
+            assertEquals(message, contents, arrayResult.getText());
+            assertEquals(message, format, arrayResult.getBarcodeFormat());
+            assertEquals(message, arrayResult.getText(), planeResult.getText());
+            assertArrayEquals(message, points(arrayResult), points(planeResult), 0.0f);
+        }
+    }
+
+    private static float[] points(Result result) {
+        ResultPoint[] resultPoints = result.getResultPoints();
+        float[] points = new float[resultPoints.length * 2];
+        for (int i = 0; i < resultPoints.length; i++) {
+            points[i * 2] = resultPoints[i].getX();
+            points[i * 2 + 1] = resultPoints[i].getY();
+        }
+        return points;
+    }
+
+}
@@ -0,0 +1,117 @@
+package com.acker.simplezxing.core;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Result;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Frames recorded by {@link FrameRecorder} play back from {@link FrameReplayer} as they were
+ * decoded.
+ */
+public class FrameRecorderTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void arrayAndPlaneFramesRoundTrip() throws IOException {
+        File file = folder.newFile("frames.szxf");
+        byte[] upright = SyntheticFrames.renderUpright("round trip", BarcodeFormat.QR_CODE, 180, 180);
+        ScanArea scanArea = new ScanArea(10, 20, 300, 200);
+        FrameRecorder recorder = new FrameRecorder(file, 8);
+        for (int rotation : SyntheticFrames.ROTATIONS) {
+            byte[] sensor = SyntheticFrames.toSensor(upright, rotation);
+            recorder.record(SyntheticFrames.arrayFrame(sensor, rotation, rotation), scanArea, rotation);
+            recorder.record(SyntheticFrames.planeFrame(sensor, rotation, rotation + 1L), scanArea, rotation + 1L);
+        }
+        recorder.close();
+        assertEquals(SyntheticFrames.ROTATIONS.length * 2, recorder.getRecordedCount());
+        assertEquals(0L, recorder.getDroppedCount());
+
+        FrameReplayer replayer = new FrameReplayer(file);
+        try {
+            for (int rotation : SyntheticFrames.ROTATIONS) {
+                byte[] sensor = SyntheticFrames.toSensor(upright, rotation);
+                assertReplayed(replayer.next(), sensor, rotation, rotation, scanArea);
+                assertReplayed(replayer.next(), sensor, rotation, rotation + 1L, scanArea);
+            }
+            assertNull(replayer.next());
+        } finally {
+            replayer.close();
+        }
+    }
+
+    @Test
+    public void recordingsAppendToOneFile() throws IOException {
+        File file = folder.newFile("frames.szxf");
+        byte[] sensor = SyntheticFrames.toSensor(
+                SyntheticFrames.renderUpright("append", BarcodeFormat.QR_CODE, 180, 180), 90);
+        ScanArea scanArea = ScanArea.fullFrame(SyntheticFrames.DISPLAY_WIDTH, SyntheticFrames.DISPLAY_HEIGHT);
+        for (long timestamp = 0L; timestamp < 2L; timestamp++) {
+            FrameRecorder recorder = new FrameRecorder(file, 1);
+            recorder.record(SyntheticFrames.arrayFrame(sensor, 90, timestamp), scanArea, timestamp);
+            recorder.close();
+        }
+
+        FrameReplayer replayer = new FrameReplayer(file);
+        try {
+            assertReplayed(replayer.next(), sensor, 90, 0L, scanArea);
+            assertReplayed(replayer.next(), sensor, 90, 1L, scanArea);
+            assertNull(replayer.next());
+        } finally {
+            replayer.close();
+        }
+    }
+
+    @Test
+    public void replayedFramesDecode() throws IOException, InterruptedException {
+        File file = folder.newFile("frames.szxf");
+        byte[] sensor = SyntheticFrames.toSensor(
+                SyntheticFrames.renderUpright("replayed", BarcodeFormat.QR_CODE, 180, 180), 270);
+        ScanArea scanArea = ScanArea.fullFrame(SyntheticFrames.DISPLAY_WIDTH, SyntheticFrames.DISPLAY_HEIGHT);
+        FrameRecorder recorder = new FrameRecorder(file, 1);
+        recorder.record(SyntheticFrames.planeFrame(sensor, 270, 0L), scanArea, 0L);
+        recorder.close();
+
+        final String[] decoded = new String[1];
+        FrameReplayer replayer = new FrameReplayer(file);
+        try {
+            replayer.replay(new FrameDecoder(new FormatScheduler(null, null), null, null, false, false, null, null,
+                    null), false, new FrameReplayer.Listener() {
+                @Override
+                public void onFrameDecoded(FrameReplayer.RecordedFrame frame, Result result, long decodeNanos) {
+                    decoded[0] = result == null ? null : result.getText();
+                }
+            });
+        } finally {
+            replayer.close();
+        }
+        assertEquals("replayed", decoded[0]);
+    }
+
+    private static void assertReplayed(FrameReplayer.RecordedFrame recordedFrame, byte[] sensor, int rotation,
+                                       long timestampNanos, ScanArea scanArea) {
+        assertNotNull(recordedFrame);
+        Frame frame = recordedFrame.getFrame();
+        assertEquals(timestampNanos, recordedFrame.getTimestampNanos());
+        assertEquals(timestampNanos, frame.getTimestampNanos());
+        assertEquals(SyntheticFrames.sensorWidth(rotation), frame.getWidth());
+        assertEquals(SyntheticFrames.sensorHeight(rotation), frame.getHeight());
+        assertEquals(rotation, frame.getRotation());
+        assertEquals(scanArea, recordedFrame.getScanArea());
+        assertArrayEquals(sensor, Arrays.copyOf(frame.getData(), sensor.length));
+    }
+
+}
@@ -0,0 +1,75 @@
+package com.acker.simplezxing.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Frames are served the way {@link FrameSource} promises.
+ */
+public class FrameSourceTest {
+
+    @Test
+    public void consumersAreServedInOrderOneFrameEach() {
+        FakeFrameSource source = new FakeFrameSource();
+        RecordingConsumer first = new RecordingConsumer();
+        RecordingConsumer second = new RecordingConsumer();
+        Frame frame1 = newFrame();
+        Frame frame2 = newFrame();
+        source.requestFrame(first);
+        source.requestFrame(second);
+
+        assertTrue(source.deliver(frame1));
+        assertTrue(source.deliver(frame2));
+        assertFalse(source.deliver(newFrame()));
+        assertEquals(1, first.frames.size());
+        assertSame(frame1, first.frames.get(0));
+        assertEquals(1, second.frames.size());
+        assertSame(frame2, second.frames.get(0));
+    }
+
+    @Test
+    public void consumerAlreadyWaitingIsNotQueuedAgain() {
+        FakeFrameSource source = new FakeFrameSource();
+        RecordingConsumer consumer = new RecordingConsumer();
+        source.requestFrame(consumer);
+        source.requestFrame(consumer);
+
+        assertTrue(source.deliver(newFrame()));
+        assertFalse(source.deliver(newFrame()));
+        assertEquals(1, consumer.frames.size());
+    }
+
+    @Test
+    public void stoppingDropsRequests() {
+        FakeFrameSource source = new FakeFrameSource();
+        RecordingConsumer consumer = new RecordingConsumer();
+        source.requestFrame(consumer);
+        source.stop();
+
+        assertFalse(source.deliver(newFrame()));
+        assertTrue(consumer.frames.isEmpty());
+    }
+
+    private static Frame newFrame() {
+        return new Frame(new byte[4], 2, 2, 0, 0L);
+    }
+
+    private static final class RecordingConsumer implements FrameSource.Consumer {
+
+        final List<Frame> frames = new ArrayList<>();
+
+        @Override
+        public void onFrame(Frame frame) {
+            frames.add(frame);
+        }
+
+    }
+
+}
@@ -0,0 +1,143 @@
+package com.acker.simplezxing.core;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.MultiFormatWriter;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Camera frames of a barcode, laid out the way the sensor delivers them for each rotation: as an
+ * NV21 buffer, as the old Camera API does, or as a luminance plane with padded rows, as camera2 does.
+ */
+final class SyntheticFrames {
+
+    /**
+     * Of the frame as displayed, whatever its rotation.
+     */
+    static final int DISPLAY_WIDTH = 360;
+    static final int DISPLAY_HEIGHT = 240;
+
+    static final int[] ROTATIONS = {0, 90, 180, 270};
+
+    private static final int ROW_PADDING = 24;
+
+    private SyntheticFrames() {
+    }
+
+    /**
+     * @return The luminance of the barcode, black on white, centred in a frame as displayed.
+     */
+    static byte[] renderUpright(String contents, BarcodeFormat format, int width, int height) {
+        return renderUpright(contents, format, width, height, DISPLAY_WIDTH, DISPLAY_HEIGHT);
+    }
+
+    /**
+     * @return The luminance of the barcode, black on white, centred in a frame of the given size.
+     */
+    static byte[] renderUpright(String contents, BarcodeFormat format, int width, int height,
+                                int displayWidth, int displayHeight) {
+        BitMatrix matrix;
+        try {
+            matrix = new MultiFormatWriter().encode(contents, format, width, height);
+        } catch (WriterException we) {
+            throw new IllegalArgumentException(we);
+        }
+        byte[] upright = new byte[displayWidth * displayHeight];
+        Arrays.fill(upright, (byte) 0xff);
+        int left = (displayWidth - matrix.getWidth()) / 2;
+        int top = (displayHeight - matrix.getHeight()) / 2;
+        for (int y = 0; y < matrix.getHeight(); y++) {
+            for (int x = 0; x < matrix.getWidth(); x++) {
+                if (matrix.get(x, y)) {
+                    upright[(top + y) * displayWidth + left + x] = 0;
+                }
+            }
+        }
+        return upright;
+    }
+
+    /**
+     * @return The luminance as the sensor delivers it, which the rotation turns upright.
+     */
+    static byte[] toSensor(byte[] upright, int rotation) {
+        int width = sensorWidth(rotation);
+        int height = sensorHeight(rotation);
+        byte[] sensor = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int displayX;
+                int displayY;
+                switch (rotation) {
+                    case 90:
+                        displayX = height - 1 - y;
+                        displayY = x;
+                        break;
+                    case 180:
+                        displayX = width - 1 - x;
+                        displayY = height - 1 - y;
+                        break;
+                    case 270:
+                        displayX = y;
+                        displayY = width - 1 - x;
+                        break;
+                    default:
+                        displayX = x;
+                        displayY = y;
+                        break;
+                }
+                sensor[y * width + x] = upright[displayY * DISPLAY_WIDTH + displayX];
+            }
+        }
+        return sensor;
+    }
+
+    static int sensorWidth(int rotation) {
+        return rotation % 180 == 0 ? DISPLAY_WIDTH : DISPLAY_HEIGHT;
+    }
+
+    static int sensorHeight(int rotation) {
+        return rotation % 180 == 0 ? DISPLAY_HEIGHT : DISPLAY_WIDTH;
+    }
+
+    /**
+     * @return An NV21 frame of the sensor's luminance, with grey chroma.
+     */
+    static Frame arrayFrame(byte[] sensor, int rotation, long timestampNanos) {
+        return arrayFrame(sensor, sensorWidth(rotation), sensorHeight(rotation), rotation, timestampNanos);
+    }
+
+    /**
+     * @return An NV21 frame of the given size of the sensor's luminance, with grey chroma.
+     */
+    static Frame arrayFrame(byte[] sensor, int width, int height, int rotation, long timestampNanos) {
+        byte[] nv21 = new byte[width * height * 3 / 2];
+        System.arraycopy(sensor, 0, nv21, 0, width * height);
+        Arrays.fill(nv21, width * height, nv21.length, (byte) 0x80);
+        return new Frame(nv21, width, height, rotation, timestampNanos);
+    }
+
+    /**
+     * @return A frame of the sensor's luminance in a direct plane whose rows are padded with noise,
+     * and whose last row stops short of the stride.
+     */
+    static Frame planeFrame(byte[] sensor, int rotation, long timestampNanos) {
+        int width = sensorWidth(rotation);
+        int height = sensorHeight(rotation);
+        int rowStride = width + ROW_PADDING;
+        ByteBuffer plane = ByteBuffer.allocateDirect((height - 1) * rowStride + width);
+        for (int y = 0; y < height; y++) {
+            plane.put(sensor, y * width, width);
+            if (y < height - 1) {
+                for (int i = 0; i < ROW_PADDING; i++) {
+                    plane.put((byte) (i * 37));
+                }
+            }
+        }
+        plane.clear();
+        return new Frame(plane, rowStride, width, height, rotation, timestampNanos);
+    }
+
+}
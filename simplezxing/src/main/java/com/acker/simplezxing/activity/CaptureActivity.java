@@ -24,7 +24,6 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.view.OrientationEventListener;
-import android.view.Surface;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 import android.view.View;
@@ -35,9 +34,19 @@ import com.acker.simplezxing.R;
 import com.acker.simplezxing.assit.AmbientLightManager;
 import com.acker.simplezxing.assit.BeepManager;
 import com.acker.simplezxing.camera.CameraManager;
+import com.acker.simplezxing.core.DecodeMetrics;
+import com.acker.simplezxing.core.DecodedBarcode;
+import com.acker.simplezxing.core.DuplicateResultFilter;
+import com.acker.simplezxing.core.FrameQualityGate;
+import com.acker.simplezxing.decode.DecodeThreadPool;
 import com.acker.simplezxing.view.ViewfinderView;
+import com.google.zxing.BarcodeFormat;
 import com.google.zxing.Result;
 
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Set;
+
 /**
  * This activity opens the camera and does the actual scanning on a background thread. It draws a
  * viewfinder to help the user place the barcode correctly, shows feedback as the image processing
@@ -73,22 +82,103 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
     public static final byte VALUE_ORIENTATION_AUTO = 2;
     public static final byte VALUE_ORIENTATION_LANDSCAPE = 1;
     public static final byte VALUE_ORIENTATION_PORTRAIT = 0; //default
+    public static final String KEY_CAMERA_API = "CAMERA_API";
+    public static final byte VALUE_CAMERA_API_2 = 2;
+    public static final byte VALUE_CAMERA_API_1 = 1;
+    public static final byte VALUE_CAMERA_API_AUTO = 0; //default, camera2 from Lollipop on cameras which support it natively
+    public static final String KEY_PREVIEW_SIZE_POLICY = "PREVIEW_SIZE_POLICY";
+    public static final byte VALUE_PREVIEW_SIZE_POLICY_DECODE_COST = 1; //smallest preview size still sampling the framing rect finely enough
+    public static final byte VALUE_PREVIEW_SIZE_POLICY_SCREEN = 0; //default, preview size matching the screen
     public static final String KEY_SCAN_AREA_FULL_SCREEN = "SCAN_AREA_FULL_SCREEN";
     public static final boolean VALUE_SCAN_AREA_FULL_SCREEN = true;
     public static final boolean VALUE_SCAN_AREA_VIEW_FINDER = false;
     public static final String EXTRA_SETTING_BUNDLE = "SETTING_BUNDLE";
     public static final String EXTRA_SCAN_RESULT = "SCAN_RESULT";
+    public static final String EXTRA_SCAN_RESULTS = "SCAN_RESULTS"; //ArrayList<String> of all results, in continuous scan mode
+    public static final String EXTRA_SCAN_BARCODES = "SCAN_BARCODES"; //ArrayList<DecodedBarcode> of the barcodes in the frame, in multi barcode mode
     public static final String KEY_NEED_SCAN_HINT_TEXT = "KEY_NEED_SCAN_HINT_TEXT";
     public static final boolean VALUE_SCAN_HINT_TEXT = true;
     public static final boolean VALUE_NO_SCAN_HINT_TEXT = false;
+    public static final String KEY_DECODE_THREAD_COUNT = "DECODE_THREAD_COUNT";
+    public static final int VALUE_DECODE_THREAD_COUNT_AUTO = 0; //default, all cores but one
+    public static final String KEY_PARALLEL_FORMAT_DECODE = "PARALLEL_FORMAT_DECODE";
+    public static final boolean VALUE_PARALLEL_FORMAT_DECODE = true;
+    public static final boolean VALUE_SERIAL_FORMAT_DECODE = false; //default
+    public static final String KEY_DECODE_FORMATS = "DECODE_FORMATS"; //String[] of BarcodeFormat names, default all
+    public static final String KEY_ADAPTIVE_FORMATS = "ADAPTIVE_FORMATS";
+    public static final boolean VALUE_ADAPTIVE_FORMATS = true;
+    public static final boolean VALUE_NO_ADAPTIVE_FORMATS = false; //default
+    public static final String KEY_ADAPTIVE_BINARIZER = "ADAPTIVE_BINARIZER";
+    public static final boolean VALUE_ADAPTIVE_BINARIZER = true;
+    public static final boolean VALUE_HYBRID_BINARIZER = false; //default
+    public static final String KEY_PYRAMID_DECODE = "PYRAMID_DECODE";
+    public static final boolean VALUE_PYRAMID_DECODE = true;
+    public static final boolean VALUE_NO_PYRAMID_DECODE = false; //default
+    public static final String KEY_FRAME_QUALITY_GATE = "FRAME_QUALITY_GATE";
+    public static final boolean VALUE_FRAME_QUALITY_GATE = true;
+    public static final boolean VALUE_NO_FRAME_QUALITY_GATE = false; //default
+    public static final String KEY_MIN_FRAME_SHARPNESS = "MIN_FRAME_SHARPNESS";
+    public static final int VALUE_MIN_FRAME_SHARPNESS = 8; //default, 0 to 100
+    public static final String KEY_MIN_FRAME_CONTRAST = "MIN_FRAME_CONTRAST";
+    public static final int VALUE_MIN_FRAME_CONTRAST = 40; //default, 0 to 255
+    public static final String KEY_MIN_FRAME_BRIGHTNESS = "MIN_FRAME_BRIGHTNESS";
+    public static final int VALUE_MIN_FRAME_BRIGHTNESS = 24; //default, 0 to 255
+    public static final String KEY_MAX_FRAME_BRIGHTNESS = "MAX_FRAME_BRIGHTNESS";
+    public static final int VALUE_MAX_FRAME_BRIGHTNESS = 232; //default, 0 to 255
+    public static final String KEY_TRACK_REGION_OF_INTEREST = "TRACK_REGION_OF_INTEREST";
+    public static final boolean VALUE_TRACK_REGION_OF_INTEREST = true;
+    public static final boolean VALUE_NO_TRACK_REGION_OF_INTEREST = false; //default
+    public static final String KEY_CONTINUOUS_SCAN = "CONTINUOUS_SCAN";
+    public static final boolean VALUE_CONTINUOUS_SCAN = true;
+    public static final boolean VALUE_SINGLE_SCAN = false; //default
+    public static final String KEY_DUPLICATE_RESULT_TTL = "DUPLICATE_RESULT_TTL"; //continuous scan mode only
+    public static final int VALUE_DUPLICATE_RESULT_TTL = 2000; //default, in ms out of view before a code is reported again, 0 to report every frame
+    public static final String KEY_DUPLICATE_RESULT_CAPACITY = "DUPLICATE_RESULT_CAPACITY";
+    public static final int VALUE_DUPLICATE_RESULT_CAPACITY = 64; //default, codes remembered
+    public static final String KEY_MULTI_BARCODE_DECODE = "MULTI_BARCODE_DECODE";
+    public static final boolean VALUE_MULTI_BARCODE_DECODE = true;
+    public static final boolean VALUE_SINGLE_BARCODE_DECODE = false; //default
+    public static final String KEY_MAX_SEARCH_REGIONS = "MAX_SEARCH_REGIONS";
+    public static final int VALUE_MAX_SEARCH_REGIONS = 16; //default, regions of a frame searched in multi barcode mode
+    public static final String KEY_RECORD_FRAMES_FILE = "RECORD_FRAMES_FILE"; //String path to append decoded frames to, default none
     private static final String TAG = CaptureActivity.class.getSimpleName();
     byte flashlightMode;
     byte orientationMode;
+    byte cameraApi;
+    byte previewSizePolicy;
     boolean needBeep;
     boolean needVibration;
     boolean needExposure;
     boolean needFullScreen;
     boolean needScanHintText;
+    int decodeThreadCount;
+    boolean needParallelFormatDecode;
+    Set<BarcodeFormat> decodeFormats;
+    boolean needAdaptiveFormats;
+    boolean needAdaptiveBinarizer;
+    boolean needPyramidDecode;
+    FrameQualityGate frameQualityGate;
+    boolean needTrackRegionOfInterest;
+    String recordFramesFile;
+    boolean needContinuousScan;
+    /**
+     * Null unless scanning continuously with a TTL; kept across pause and resume.
+     */
+    DuplicateResultFilter duplicateResultFilter;
+    boolean needMultiBarcodeDecode;
+    int maxSearchRegions;
+    /**
+     * Every result so far in continuous scan mode, returned in {@link #EXTRA_SCAN_RESULTS} on exit.
+     * Kept in the instance state, since turning the phone in auto orientation recreates the activity.
+     */
+    private final ArrayList<String> scanResults = new ArrayList<>();
+    private static final String STATE_SCAN_RESULTS = "SCAN_RESULTS";
+    private static OnScanResultListener onScanResultListener;
+    /**
+     * Of the current scan session, which lasts from onResume() to onPause().
+     */
+    DecodeMetrics decodeMetrics;
+    private static DecodeMetrics.Listener decodeMetricsListener;
     private CameraManager cameraManager;
     private CaptureActivityHandler handler;
     private ViewfinderView viewfinderView;
@@ -109,14 +199,41 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
         return cameraManager;
     }
 
+    /**
+     * Sets what is told about each result in continuous scan mode, on the main thread, as soon as it
+     * is found.
+     *
+     * @param listener The listener, or null to stop listening. Held statically, so clear it when
+     *                 it should be garbage collected.
+     */
+    public static void setOnScanResultListener(OnScanResultListener listener) {
+        onScanResultListener = listener;
+    }
+
+    /**
+     * Sets what is told about the metrics of each scan session once it is over, on the main thread.
+     *
+     * @param listener The listener, or null to stop listening. Held statically, so clear it when
+     *                 it should be garbage collected.
+     */
+    public static void setDecodeMetricsListener(DecodeMetrics.Listener listener) {
+        decodeMetricsListener = listener;
+    }
+
     @Override
     public void onCreate(Bundle icicle) {
         super.onCreate(icicle);
         windowSetting();
         setContentView(R.layout.capture);
         bundleSetting(getIntent().getBundleExtra(EXTRA_SETTING_BUNDLE));
+        if (icicle != null) {
+            ArrayList<String> savedScanResults = icicle.getStringArrayList(STATE_SCAN_RESULTS);
+            if (savedScanResults != null) {
+                scanResults.addAll(savedScanResults);
+            }
+        }
         myOrientationDetector = new MyOrientationDetector(this);
-        myOrientationDetector.setLastOrientation(getWindowManager().getDefaultDisplay().getRotation());
+        myOrientationDetector.setLastRotation(getWindowManager().getDefaultDisplay().getRotation());
     }
 
     private void windowSetting() {
@@ -143,11 +260,38 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
         }
         flashlightMode = bundle.getByte(KEY_FLASHLIGHT_MODE, VALUE_FLASHLIGHT_OFF);
         orientationMode = bundle.getByte(KEY_ORIENTATION_MODE, VALUE_ORIENTATION_PORTRAIT);
+        cameraApi = bundle.getByte(KEY_CAMERA_API, VALUE_CAMERA_API_AUTO);
+        previewSizePolicy = bundle.getByte(KEY_PREVIEW_SIZE_POLICY, VALUE_PREVIEW_SIZE_POLICY_SCREEN);
         needBeep = bundle.getBoolean(KEY_NEED_BEEP, VALUE_BEEP);
         needVibration = bundle.getBoolean(KEY_NEED_VIBRATION, VALUE_VIBRATION);
         needExposure = bundle.getBoolean(KEY_NEED_EXPOSURE, VALUE_NO_EXPOSURE);
         needFullScreen = bundle.getBoolean(KEY_SCAN_AREA_FULL_SCREEN, VALUE_SCAN_AREA_VIEW_FINDER);
         needScanHintText = bundle.getBoolean(KEY_NEED_SCAN_HINT_TEXT, VALUE_NO_SCAN_HINT_TEXT);
+        decodeThreadCount = bundle.getInt(KEY_DECODE_THREAD_COUNT, VALUE_DECODE_THREAD_COUNT_AUTO);
+        if (decodeThreadCount <= VALUE_DECODE_THREAD_COUNT_AUTO) {
+            decodeThreadCount = DecodeThreadPool.getDefaultThreadCount();
+        }
+        needParallelFormatDecode = bundle.getBoolean(KEY_PARALLEL_FORMAT_DECODE, VALUE_SERIAL_FORMAT_DECODE);
+        decodeFormats = parseDecodeFormats(bundle.getStringArray(KEY_DECODE_FORMATS));
+        needAdaptiveFormats = bundle.getBoolean(KEY_ADAPTIVE_FORMATS, VALUE_NO_ADAPTIVE_FORMATS);
+        needAdaptiveBinarizer = bundle.getBoolean(KEY_ADAPTIVE_BINARIZER, VALUE_HYBRID_BINARIZER);
+        needPyramidDecode = bundle.getBoolean(KEY_PYRAMID_DECODE, VALUE_NO_PYRAMID_DECODE);
+        frameQualityGate = bundle.getBoolean(KEY_FRAME_QUALITY_GATE, VALUE_NO_FRAME_QUALITY_GATE)
+                ? new FrameQualityGate(bundle.getInt(KEY_MIN_FRAME_SHARPNESS, VALUE_MIN_FRAME_SHARPNESS),
+                bundle.getInt(KEY_MIN_FRAME_CONTRAST, VALUE_MIN_FRAME_CONTRAST),
+                bundle.getInt(KEY_MIN_FRAME_BRIGHTNESS, VALUE_MIN_FRAME_BRIGHTNESS),
+                bundle.getInt(KEY_MAX_FRAME_BRIGHTNESS, VALUE_MAX_FRAME_BRIGHTNESS))
+                : null;
+        needTrackRegionOfInterest = bundle.getBoolean(KEY_TRACK_REGION_OF_INTEREST, VALUE_NO_TRACK_REGION_OF_INTEREST);
+        recordFramesFile = bundle.getString(KEY_RECORD_FRAMES_FILE);
+        needContinuousScan = bundle.getBoolean(KEY_CONTINUOUS_SCAN, VALUE_SINGLE_SCAN);
+        needMultiBarcodeDecode = bundle.getBoolean(KEY_MULTI_BARCODE_DECODE, VALUE_SINGLE_BARCODE_DECODE);
+        maxSearchRegions = Math.max(1, bundle.getInt(KEY_MAX_SEARCH_REGIONS, VALUE_MAX_SEARCH_REGIONS));
+        int duplicateResultTtl = bundle.getInt(KEY_DUPLICATE_RESULT_TTL, VALUE_DUPLICATE_RESULT_TTL);
+        duplicateResultFilter = needContinuousScan && duplicateResultTtl > 0
+                ? new DuplicateResultFilter(duplicateResultTtl,
+                bundle.getInt(KEY_DUPLICATE_RESULT_CAPACITY, VALUE_DUPLICATE_RESULT_CAPACITY))
+                : null;
         switch (orientationMode) {
             case VALUE_ORIENTATION_LANDSCAPE:
                 setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_LANDSCAPE);
@@ -167,19 +311,40 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
         beepManager = new BeepManager(this, needBeep, needVibration);
     }
 
+    private static Set<BarcodeFormat> parseDecodeFormats(String[] formatNames) {
+        if (formatNames == null) {
+            return null;
+        }
+        Set<BarcodeFormat> formats = EnumSet.noneOf(BarcodeFormat.class);
+        for (String formatName : formatNames) {
+            try {
+                formats.add(BarcodeFormat.valueOf(formatName));
+            } catch (IllegalArgumentException iae) {
+                // unknown format name, ignore it
+            }
+        }
+        return formats;
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
+        decodeMetrics = new DecodeMetrics();
         if (orientationMode == VALUE_ORIENTATION_AUTO) {
             myOrientationDetector.enable();
         }
-        cameraManager = new CameraManager(getApplication(), needExposure, needFullScreen);
+        cameraManager = new CameraManager(getApplication(), needExposure, needFullScreen, decodeThreadCount,
+                cameraApi == VALUE_CAMERA_API_2
+                        || (cameraApi == VALUE_CAMERA_API_AUTO && CameraManager.isCamera2Preferred(this)),
+                previewSizePolicy == VALUE_PREVIEW_SIZE_POLICY_DECODE_COST);
         viewfinderView = findViewById(R.id.viewfinder_view);
         viewfinderView.setCameraManager(cameraManager);
         viewfinderView.setNeedDrawText(needScanHintText);
         viewfinderView.setScanAreaFullScreen(needFullScreen);
-        handler = null;
-        beepManager.updatePrefs();
+        // Opening the camera, loading the beep and building the decoders all go on in the
+        // background while the surface is being created.
+        handler = new CaptureActivityHandler(this, cameraManager);
+        beepManager.updatePrefs(decodeMetrics);
         if (ambientLightManager != null) {
             ambientLightManager.start(cameraManager);
         }
@@ -187,7 +352,7 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
         SurfaceHolder surfaceHolder = surfaceView.getHolder();
         if (hasSurface) {
             // The activity was paused but not stopped, so the surface still exists. Therefore
-            // surfaceCreated() won't be called, so init the camera here.
+            // surfaceCreated() won't be called, so start the preview here.
             initCamera(surfaceHolder);
         } else {
             // Install the callback and wait for surfaceCreated() to init the camera.
@@ -208,6 +373,9 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
         }
         beepManager.close();
         cameraManager.closeDriver();
+        if (decodeMetricsListener != null) {
+            decodeMetricsListener.onSessionFinished(decodeMetrics);
+        }
         if (!hasSurface) {
             SurfaceView surfaceView = (SurfaceView) findViewById(R.id.preview_view);
             SurfaceHolder surfaceHolder = surfaceView.getHolder();
@@ -216,6 +384,12 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
         super.onPause();
     }
 
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putStringArrayList(STATE_SCAN_RESULTS, scanResults);
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
@@ -255,6 +429,14 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
      */
     public void handleDecode(Result rawResult) {
         beepManager.playBeepSoundAndVibrate();
+        if (needContinuousScan) {
+            // Scanning has already resumed
+            scanResults.add(rawResult.getText());
+            if (onScanResultListener != null) {
+                onScanResultListener.onScanResult(rawResult);
+            }
+            return;
+        }
         try {
             Thread.sleep(300);
         } catch (InterruptedException e) {
@@ -263,83 +445,107 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
         returnResult(RESULT_OK, rawResult.getText());
     }
 
+    /**
+     * Several barcodes have been found in one frame, in multi barcode mode.
+     *
+     * @param barcodes The barcodes, at least one.
+     */
+    void handleDecodeMultiple(ArrayList<DecodedBarcode> barcodes) {
+        beepManager.playBeepSoundAndVibrate();
+        if (needContinuousScan) {
+            for (DecodedBarcode barcode : barcodes) {
+                scanResults.add(barcode.getText());
+                if (onScanResultListener != null) {
+                    onScanResultListener.onScanResult(barcode.toResult());
+                }
+            }
+            return;
+        }
+        try {
+            Thread.sleep(300);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        // The first one also goes where single barcode mode puts it
+        setResult(RESULT_OK, new Intent().putExtra(EXTRA_SCAN_RESULT, barcodes.get(0).getText())
+                .putExtra(EXTRA_SCAN_BARCODES, barcodes));
+        finish();
+    }
+
     private void initCamera(SurfaceHolder surfaceHolder) {
         if (surfaceHolder == null) {
             throw new IllegalStateException("No SurfaceHolder provided");
         }
-        if (cameraManager.isOpen()) {
-            //Log.w(TAG, "initCamera() while already open -- late SurfaceView callback?");
+        if (handler == null) {
+            //Log.w(TAG, "initCamera() while paused -- late SurfaceView callback?");
             return;
         }
-        try {
-            cameraManager.openDriver(surfaceHolder);
-            // Creating the handler starts the preview, which can also throw a RuntimeException.
-            if (handler == null) {
-                handler = new CaptureActivityHandler(this, cameraManager);
-            }
-        } catch (Exception e) {
-            //Log.w(TAG, e);
-            returnResult(RESULT_CANCELED, getString(R.string.msg_camera_framework_bug));
-        }
+        decodeMetrics.recordPhaseSinceStart(DecodeMetrics.Phase.SURFACE);
+        // The camera may still be opening; the preview starts as soon as it is open.
+        handler.startPreview(surfaceHolder);
+    }
+
+    void displayFrameworkBugMessageAndExit() {
+        returnResult(RESULT_CANCELED, getString(R.string.msg_camera_framework_bug));
     }
 
     public void drawViewfinder() {
         viewfinderView.drawViewfinder();
     }
 
+    @Override
+    public void onBackPressed() {
+        if (needContinuousScan) {
+            setResult(scanResults.isEmpty() ? RESULT_CANCELED : RESULT_OK,
+                    new Intent().putStringArrayListExtra(EXTRA_SCAN_RESULTS, scanResults));
+            finish();
+        } else {
+            super.onBackPressed();
+        }
+    }
+
     private void returnResult(int resultCode, String resultStr) {
         setResult(resultCode, new Intent().putExtra(EXTRA_SCAN_RESULT, resultStr));
         finish();
     }
 
-    private void restartActivity() {
-        onPause();
-        // some device return wrong rotation state when rotate quickly.
-        try {
-            Thread.sleep(500);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
-        onResume();
-    }
-
+    /**
+     * Turning the phone straight from landscape to reverse landscape, or portrait to reverse
+     * portrait, rotates the display without recreating the activity, so the preview has to be
+     * turned around to follow. The camera and decoding are left running throughout.
+     */
     private class MyOrientationDetector extends OrientationEventListener {
 
-        private int lastOrientation = -1;
+        private int lastRotation;
 
         MyOrientationDetector(Context context) {
             super(context);
         }
 
-        void setLastOrientation(int rotation) {
-            switch (rotation) {
-                case Surface.ROTATION_90:
-                    lastOrientation = 270;
-                    break;
-                case Surface.ROTATION_270:
-                    lastOrientation = 90;
-                    break;
-                default:
-                    lastOrientation = -1;
-            }
+        void setLastRotation(int rotation) {
+            lastRotation = rotation;
         }
 
         @Override
         public void onOrientationChanged(int orientation) {
-            //Log.d(TAG, "orientation:" + orientation);
-            if (orientation > 45 && orientation < 135) {
-                orientation = 90;
-            } else if (orientation > 225 && orientation < 315) {
-                orientation = 270;
-            } else {
-                orientation = -1;
-            }
-            if ((orientation == 90 && lastOrientation == 270) || (orientation == 270 && lastOrientation == 90)) {
-                //Log.i(TAG, "orientation:" + orientation + "lastOrientation:" + lastOrientation);
-                restartActivity();
-                lastOrientation = orientation;
-                //Log.i(TAG, "SUCCESS");
+            // The display follows the sensor with a delay, and some devices report the wrong rotation
+            // for a moment, so check the display itself on every sensor change until it settles.
+            int rotation = getWindowManager().getDefaultDisplay().getRotation();
+            if (rotation != lastRotation && rotation % 2 == lastRotation % 2 && cameraManager != null) {
+                // Half a turn; a quarter turn recreates the activity anyway
+                cameraManager.updateDisplayOrientation();
             }
+            lastRotation = rotation;
         }
     }
+
+    /**
+     * Told about each result in continuous scan mode.
+     */
+    public interface OnScanResultListener {
+
+        void onScanResult(Result result);
+
+    }
+
 }
@@ -17,13 +17,25 @@ package com.acker.simplezxing.activity;
 
 import android.os.Handler;
 import android.os.Message;
+import android.view.SurfaceHolder;
 
 import com.acker.simplezxing.R;
 import com.acker.simplezxing.camera.CameraManager;
-import com.acker.simplezxing.decode.DecodeThread;
+import com.acker.simplezxing.core.DecodeMetrics;
+import com.acker.simplezxing.core.DecodedBarcode;
+import com.acker.simplezxing.core.FormatScheduler;
+import com.acker.simplezxing.core.FrameRecorder;
+import com.acker.simplezxing.core.FrameSource;
+import com.acker.simplezxing.core.RegionOfInterestTracker;
+import com.acker.simplezxing.decode.DecodeThreadPool;
+import com.acker.simplezxing.decode.PreferencesFormatHistory;
 import com.acker.simplezxing.view.ViewfinderResultPointCallback;
 import com.google.zxing.Result;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
 /**
  * This class handles all the messaging which comprises the state machine for capture.
  *
@@ -38,31 +50,142 @@ import com.google.zxing.Result;
 final class CaptureActivityHandler extends Handler {
 
     private static final String TAG = CaptureActivityHandler.class.getSimpleName();
+    /**
+     * How many recorded frames may wait to be written before new ones are dropped.
+     */
+    private static final int RECORD_BUFFER_COUNT = 4;
     private final CaptureActivity activity;
-    private final DecodeThread decodeThread;
     private final CameraManager cameraManager;
+    /**
+     * Null until built in the background.
+     */
+    private DecodeThreadPool decodeThreadPool;
+    private boolean cameraOpened;
     private State state;
 
+    /**
+     * Starts opening the camera and building the decoders, both in the background. The preview
+     * starts once {@link #startPreview} hands in the surface as well, and decoding once the camera
+     * and the decoders are both ready.
+     */
     CaptureActivityHandler(CaptureActivity activity, CameraManager cameraManager) {
         this.activity = activity;
-        decodeThread = new DecodeThread(activity, new ViewfinderResultPointCallback(activity.getViewfinderView()));
-        decodeThread.start();
-        state = State.SUCCESS;
-        // Start ourselves capturing previews and decoding.
         this.cameraManager = cameraManager;
-        cameraManager.startPreview();
-        restartPreviewAndDecode();
+        state = State.SUCCESS;
+        cameraManager.openDriver(this);
+        buildDecodeThreadPool(activity.decodeMetrics);
+    }
+
+    /**
+     * Builds and starts the decoders on a thread of their own, since reading the format history and
+     * waiting for every worker to start takes a while. The pool is handed over in
+     * {@link R.id#decode_ready}.
+     */
+    private void buildDecodeThreadPool(final DecodeMetrics metrics) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                DecodeThreadPool pool = new DecodeThreadPool(activity,
+                        new ViewfinderResultPointCallback(activity.getViewfinderView()),
+                        activity.decodeThreadCount,
+                        activity.needParallelFormatDecode,
+                        new FormatScheduler(activity.needAdaptiveFormats ? new PreferencesFormatHistory(activity) : null,
+                                activity.decodeFormats),
+                        activity.needAdaptiveBinarizer,
+                        activity.needPyramidDecode,
+                        activity.frameQualityGate,
+                        activity.needTrackRegionOfInterest ? new RegionOfInterestTracker() : null,
+                        openFrameRecorder(activity.recordFramesFile),
+                        metrics,
+                        activity.duplicateResultFilter,
+                        activity.needMultiBarcodeDecode ? activity.maxSearchRegions : 0);
+                pool.start();
+                metrics.recordPhase(DecodeMetrics.Phase.DECODER, System.nanoTime() - start);
+                obtainMessage(R.id.decode_ready, pool).sendToTarget();
+            }
+        }, TAG).start();
+    }
+
+    /**
+     * Starts the preview into the surface, as soon as the camera is open.
+     */
+    void startPreview(SurfaceHolder surfaceHolder) {
+        cameraManager.startPreview(surfaceHolder, activity.decodeMetrics);
     }
 
     @Override
     public void handleMessage(Message message) {
-        if (message.what == R.id.decode_succeeded) {
-            state = State.SUCCESS;
-            activity.handleDecode((Result) message.obj);
+        if (message.what == R.id.decode_ready) {
+            DecodeThreadPool pool = (DecodeThreadPool) message.obj;
+            if (state == State.DONE) {
+                // Quit before the decoders were ready
+                pool.quitSynchronously();
+            } else {
+                decodeThreadPool = pool;
+                if (cameraOpened) {
+                    restartPreviewAndDecode();
+                }
+            }
+
+        } else if (message.what == R.id.camera_opened) {
+            if (state != State.DONE) {
+                activity.decodeMetrics.reach(DecodeMetrics.Milestone.CAMERA_OPENED);
+                activity.decodeMetrics.recordPhase(DecodeMetrics.Phase.CAMERA_OPEN, (Long) message.obj);
+                cameraOpened = true;
+                // Start ourselves capturing previews and decoding; frames asked for now arrive once
+                // the preview has started.
+                if (decodeThreadPool != null) {
+                    restartPreviewAndDecode();
+                }
+            }
+
+        } else if (message.what == R.id.preview_started) {
+            activity.decodeMetrics.recordPhase(DecodeMetrics.Phase.PREVIEW, (Long) message.obj);
+
+        } else if (message.what == R.id.camera_open_failed) {
+            if (state != State.DONE) {
+                //Log.w(TAG, "Could not open the camera", (Throwable) message.obj);
+                activity.displayFrameworkBugMessageAndExit();
+            }
+
+        } else if (message.what == R.id.decode_succeeded) {
+            if (state == State.PREVIEW) {
+                // Counted once per result the user gets, whoever else found it too
+                decodeThreadPool.getFormatScheduler().recordSuccess(((Result) message.obj).getBarcodeFormat());
+                if (activity.needContinuousScan) {
+                    // Keep scanning; the other workers carry on with their frames.
+                    activity.handleDecode((Result) message.obj);
+                    requestPreviewFrame(decodeThreadPool.getFrameConsumer(message.arg1));
+                } else {
+                    // First worker to succeed wins; whatever the others are still decoding is dropped.
+                    state = State.SUCCESS;
+                    decodeThreadPool.pauseDecoding();
+                    activity.handleDecode((Result) message.obj);
+                }
+            }
+
+        } else if (message.what == R.id.decode_multiple_succeeded) {
+            if (state == State.PREVIEW) {
+                @SuppressWarnings("unchecked")
+                ArrayList<DecodedBarcode> barcodes = (ArrayList<DecodedBarcode>) message.obj;
+                for (DecodedBarcode barcode : barcodes) {
+                    decodeThreadPool.getFormatScheduler().recordSuccess(barcode.getFormat());
+                }
+                if (activity.needContinuousScan) {
+                    activity.handleDecodeMultiple(barcodes);
+                    requestPreviewFrame(decodeThreadPool.getFrameConsumer(message.arg1));
+                } else {
+                    state = State.SUCCESS;
+                    decodeThreadPool.pauseDecoding();
+                    activity.handleDecodeMultiple(barcodes);
+                }
+            }
 
         } else if (message.what == R.id.decode_failed) {// We're decoding as fast as possible, so when one decode fails, start another.
-            state = State.PREVIEW;
-            cameraManager.requestPreviewFrame(decodeThread.getHandler(), R.id.decode);
+            if (state == State.PREVIEW) {
+                requestPreviewFrame(decodeThreadPool.getFrameConsumer(message.arg1));
+            }
 
         }
     }
@@ -70,23 +193,45 @@ final class CaptureActivityHandler extends Handler {
     void quitSynchronously() {
         state = State.DONE;
         cameraManager.stopPreview();
-        Message quit = Message.obtain(decodeThread.getHandler(), R.id.quit);
-        quit.sendToTarget();
-        try {
-            // Wait at most half a second; should be enough time, and onPause() will timeout quickly
-            decodeThread.join(500L);
-        } catch (InterruptedException e) {
-            // continue
+        if (decodeThreadPool != null) {
+            decodeThreadPool.quitSynchronously();
         }
-        // Be absolutely sure we don't send any queued up messages
+        // Be absolutely sure we don't send any queued up messages. A pool still being built is
+        // quit once it arrives.
+        removeMessages(R.id.camera_opened);
+        removeMessages(R.id.preview_started);
+        removeMessages(R.id.camera_open_failed);
         removeMessages(R.id.decode_succeeded);
+        removeMessages(R.id.decode_multiple_succeeded);
         removeMessages(R.id.decode_failed);
     }
 
+    private void requestPreviewFrame(FrameSource.Consumer decodeHandler) {
+        activity.decodeMetrics.increment(DecodeMetrics.Counter.REQUESTED);
+        cameraManager.requestPreviewFrame(decodeHandler);
+    }
+
+    private static FrameRecorder openFrameRecorder(String path) {
+        if (path == null) {
+            return null;
+        }
+        try {
+            return new FrameRecorder(new File(path), RECORD_BUFFER_COUNT);
+        } catch (IOException ioe) {
+            // Scanning goes on without recording
+            //Log.w(TAG, "Can't record frames to " + path, ioe);
+            return null;
+        }
+    }
+
     private void restartPreviewAndDecode() {
         if (state == State.SUCCESS) {
             state = State.PREVIEW;
-            cameraManager.requestPreviewFrame(decodeThread.getHandler(), R.id.decode);
+            decodeThreadPool.resumeDecoding();
+            // Every worker waits for a frame of its own
+            for (int i = 0; i < decodeThreadPool.getThreadCount(); i++) {
+                requestPreviewFrame(decodeThreadPool.getFrameConsumer(i));
+            }
             activity.drawViewfinder();
         }
     }
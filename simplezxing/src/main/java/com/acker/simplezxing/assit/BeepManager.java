@@ -23,12 +23,14 @@ import android.media.MediaPlayer;
 import android.os.Vibrator;
 
 import com.acker.simplezxing.R;
+import com.acker.simplezxing.core.DecodeMetrics;
 
 import java.io.Closeable;
 import java.io.IOException;
 
 /**
- * Manages beeps and vibrations for CaptureActivity.
+ * Manages beeps and vibrations for CaptureActivity. The beep is loaded in the background, so that
+ * starting a scan does not wait for it; a barcode found before it is ready goes without.
  */
 
 /**
@@ -43,6 +45,7 @@ public final class BeepManager implements Closeable {
     private static final long VIBRATE_DURATION = 200L;
     private final Activity activity;
     private MediaPlayer mediaPlayer;
+    private boolean prepared;
     private boolean playBeep;
     private boolean vibrate;
 
@@ -65,18 +68,25 @@ public final class BeepManager implements Closeable {
         return shouldPlayBeep;
     }
 
-    public synchronized void updatePrefs() {
+    /**
+     * Starts loading the beep if it is to be played. Must be called on a thread with a looper, which
+     * is told once the beep is ready.
+     *
+     * @param metrics Where to record how long loading took as {@link DecodeMetrics.Phase#SOUND}, may
+     *                be null.
+     */
+    public synchronized void updatePrefs(DecodeMetrics metrics) {
         playBeep = shouldBeep(activity);
         if (playBeep && mediaPlayer == null) {
             // The volume on STREAM_SYSTEM is not adjustable, and users found it too loud,
             // so we now play on the music stream.
             activity.setVolumeControlStream(AudioManager.STREAM_MUSIC);
-            mediaPlayer = buildMediaPlayer(activity);
+            mediaPlayer = buildMediaPlayer(activity, metrics);
         }
     }
 
     public synchronized void playBeepSoundAndVibrate() {
-        if (playBeep && mediaPlayer != null) {
+        if (playBeep && prepared) {
             mediaPlayer.start();
         }
         if (vibrate) {
@@ -85,7 +95,8 @@ public final class BeepManager implements Closeable {
         }
     }
 
-    private MediaPlayer buildMediaPlayer(Context activity) {
+    private MediaPlayer buildMediaPlayer(Context activity, final DecodeMetrics metrics) {
+        final long start = System.nanoTime();
         MediaPlayer mediaPlayer = new MediaPlayer();
         try {
             AssetFileDescriptor file = activity.getResources().openRawResourceFd(R.raw.beep);
@@ -97,7 +108,31 @@ public final class BeepManager implements Closeable {
             mediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
             mediaPlayer.setLooping(false);
             mediaPlayer.setVolume(BEEP_VOLUME, BEEP_VOLUME);
-            mediaPlayer.prepare();
+            mediaPlayer.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
+                @Override
+                public void onPrepared(MediaPlayer preparedPlayer) {
+                    synchronized (BeepManager.this) {
+                        // Not if closed meanwhile
+                        prepared = preparedPlayer == BeepManager.this.mediaPlayer;
+                    }
+                    if (metrics != null) {
+                        metrics.recordPhase(DecodeMetrics.Phase.SOUND, System.nanoTime() - start);
+                    }
+                }
+            });
+            mediaPlayer.setOnErrorListener(new MediaPlayer.OnErrorListener() {
+                @Override
+                public boolean onError(MediaPlayer failedPlayer, int what, int extra) {
+                    //Log.w(TAG, "Failed to beep " + what + ", " + extra);
+                    synchronized (BeepManager.this) {
+                        if (failedPlayer == BeepManager.this.mediaPlayer) {
+                            close();
+                        }
+                    }
+                    return true;
+                }
+            });
+            mediaPlayer.prepareAsync();
             return mediaPlayer;
         } catch (IOException ioe) {
             //Log.w(TAG, ioe);
@@ -112,6 +147,7 @@ public final class BeepManager implements Closeable {
             mediaPlayer.release();
             mediaPlayer = null;
         }
+        prepared = false;
     }
 
 }
\ No newline at end of file
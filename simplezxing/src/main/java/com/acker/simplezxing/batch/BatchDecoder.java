@@ -0,0 +1,356 @@
+package com.acker.simplezxing.batch;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Binarizer;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.common.GlobalHistogramBinarizer;
+import com.google.zxing.common.HybridBinarizer;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes barcodes from still images, such as gallery imports, on a fixed number of background
+ * threads. Results are handed to a {@link Callback} on the main thread one by one, as each image
+ * is done.
+ * <p>
+ * Only as many images as there are threads are ever held in memory, each scaled down by BitmapFactory
+ * to at most {@link #MAX_PIXELS} pixels while it is read, so batches of any size can be submitted.
+ * An image taking longer than the timeout is reported as failed straight away; its thread gives up
+ * on it at the next opportunity, since a reader can't be stopped midway. Every image is reported,
+ * even those cut short by {@link #shutdown()}, so every batch finishes.
+ */
+public final class BatchDecoder {
+
+    /**
+     * Images with more pixels are scaled down by powers of two when read.
+     */
+    public static final int MAX_PIXELS = 2048 * 2048;
+
+    /**
+     * How many rows of pixels are converted between checks for a timeout.
+     */
+    private static final int ROWS_PER_CHECK = 64;
+
+    private final Context context;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService watchdog;
+    private final Handler mainHandler;
+    private final long timeoutMillis;
+    private final Map<DecodeHintType, Object> hints;
+
+    /**
+     * @param threadCount   How many images are decoded at the same time.
+     * @param timeoutMillis How long an image may take, from when its decoding starts.
+     * @param formats       The formats to look for, or null for all.
+     */
+    public BatchDecoder(Context context, int threadCount, long timeoutMillis, Collection<BarcodeFormat> formats) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Bad thread count: " + threadCount);
+        }
+        this.context = context.getApplicationContext();
+        executor = Executors.newFixedThreadPool(threadCount);
+        watchdog = Executors.newSingleThreadScheduledExecutor();
+        mainHandler = new Handler(Looper.getMainLooper());
+        this.timeoutMillis = timeoutMillis;
+        hints = new EnumMap<>(DecodeHintType.class);
+        // Unlike preview frames, each image only gets one go
+        hints.put(DecodeHintType.TRY_HARDER, Boolean.TRUE);
+        if (formats != null && !formats.isEmpty()) {
+            hints.put(DecodeHintType.POSSIBLE_FORMATS, EnumSet.copyOf(formats));
+        }
+    }
+
+    /**
+     * Queues the images for decoding. May be called again before an earlier batch is finished.
+     *
+     * @throws IllegalStateException If {@link #shutdown()} was called.
+     */
+    public void decode(Collection<ImageSource> sources, Callback callback) {
+        if (executor.isShutdown()) {
+            throw new IllegalStateException("Shut down");
+        }
+        Batch batch = new Batch(callback, sources.size());
+        if (sources.isEmpty()) {
+            batch.finish();
+            return;
+        }
+        for (ImageSource source : sources) {
+            DecodeTask task = new DecodeTask(source, batch);
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException ree) {
+                // Shut down meanwhile
+                task.cancel();
+            }
+        }
+    }
+
+    /**
+     * Stops decoding. Images not finished yet are reported as failed with a
+     * {@link CancellationException}, so every batch still finishes; images being decoded may be
+     * reported a little later, once their threads notice.
+     */
+    public void shutdown() {
+        for (Runnable task : executor.shutdownNow()) {
+            ((DecodeTask) task).cancel();
+        }
+        watchdog.shutdownNow();
+    }
+
+    private Result decodeImage(ImageSource source) throws IOException, InterruptedException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        source.decode(context, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Not an image: " + source);
+        }
+        int sampleSize = 1;
+        while ((long) (options.outWidth / sampleSize) * (options.outHeight / sampleSize) > MAX_PIXELS) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        Bitmap bitmap = source.decode(context, options);
+        if (bitmap == null) {
+            throw new IOException("Can't decode " + source);
+        }
+        LuminanceSource luminanceSource;
+        try {
+            luminanceSource = buildLuminanceSource(bitmap);
+        } finally {
+            bitmap.recycle();
+        }
+        MultiFormatReader reader = new MultiFormatReader();
+        reader.setHints(hints);
+        Result result = decode(reader, new HybridBinarizer(luminanceSource));
+        if (result == null) {
+            checkInterrupted();
+            result = decode(reader, new GlobalHistogramBinarizer(luminanceSource));
+        }
+        return result;
+    }
+
+    /**
+     * Converts the bitmap one row at a time, so only its luminance is ever held in full besides it.
+     */
+    private static LuminanceSource buildLuminanceSource(Bitmap bitmap) throws InterruptedException {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        byte[] luminances = new byte[width * height];
+        int[] row = new int[width];
+        int offset = 0;
+        for (int y = 0; y < height; y++) {
+            if (y % ROWS_PER_CHECK == 0) {
+                checkInterrupted();
+            }
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            for (int x = 0; x < width; x++) {
+                int pixel = row[x];
+                int r = (pixel >> 16) & 0xff; // red
+                int g2 = (pixel >> 7) & 0x1fe; // 2 * green
+                int b = pixel & 0xff; // blue
+                // Calculate green-favouring average cheaply, like RGBLuminanceSource
+                luminances[offset++] = (byte) ((r + g2 + b) / 4);
+            }
+        }
+        return new PlanarYUVLuminanceSource(luminances, width, height, 0, 0, width, height, false);
+    }
+
+    private static Result decode(MultiFormatReader reader, Binarizer binarizer) {
+        try {
+            return reader.decodeWithState(new BinaryBitmap(binarizer));
+        } catch (ReaderException re) {
+            return null;
+        } finally {
+            reader.reset();
+        }
+    }
+
+    private static void checkInterrupted() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    /**
+     * Receives the outcome of every image of a batch, on the main thread.
+     */
+    public interface Callback {
+
+        /**
+         * @param result The barcode found, or null if there is none.
+         */
+        void onImageDecoded(ImageSource source, Result result);
+
+        /**
+         * @param e Why the image couldn't be decoded: an {@link IOException} if it couldn't be read,
+         *          a {@link TimeoutException} if it took too long, a {@link CancellationException} if
+         *          {@link #shutdown()} was called first.
+         */
+        void onImageFailed(ImageSource source, Exception e);
+
+        /**
+         * Called after every image of the batch has been reported.
+         */
+        void onBatchFinished();
+
+    }
+
+    private final class Batch {
+
+        private final Callback callback;
+        private final AtomicInteger remaining;
+
+        Batch(Callback callback, int size) {
+            this.callback = callback;
+            remaining = new AtomicInteger(size);
+        }
+
+        void imageDecoded(final ImageSource source, final Result result) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onImageDecoded(source, result);
+                }
+            });
+            imageDone();
+        }
+
+        void imageFailed(final ImageSource source, final Exception e) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onImageFailed(source, e);
+                }
+            });
+            imageDone();
+        }
+
+        private void imageDone() {
+            if (remaining.decrementAndGet() == 0) {
+                finish();
+            }
+        }
+
+        void finish() {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onBatchFinished();
+                }
+            });
+        }
+
+    }
+
+    private final class DecodeTask implements Runnable {
+
+        private final ImageSource source;
+        private final Batch batch;
+        /**
+         * Set by whichever reports the image first, the task itself or its timeout.
+         */
+        private final AtomicBoolean reported;
+        private Thread worker;
+
+        DecodeTask(ImageSource source, Batch batch) {
+            this.source = source;
+            this.batch = batch;
+            reported = new AtomicBoolean();
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                worker = Thread.currentThread();
+            }
+            ScheduledFuture<?> timeout;
+            try {
+                timeout = watchdog.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (reported.compareAndSet(false, true)) {
+                            batch.imageFailed(source, new TimeoutException("Timed out decoding " + source));
+                            interruptWorker();
+                        }
+                    }
+                }, timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException ree) {
+                // Shut down just as the image was started
+                synchronized (this) {
+                    worker = null;
+                }
+                cancel();
+                return;
+            }
+            try {
+                Result result = decodeImage(source);
+                if (reported.compareAndSet(false, true)) {
+                    batch.imageDecoded(source, result);
+                }
+            } catch (InterruptedException ie) {
+                // Already reported if timed out, otherwise shut down
+                cancel();
+            } catch (IOException | RuntimeException e) {
+                if (reported.compareAndSet(false, true)) {
+                    batch.imageFailed(source, e);
+                }
+            } catch (OutOfMemoryError oome) {
+                if (reported.compareAndSet(false, true)) {
+                    batch.imageFailed(source, new IOException("Out of memory decoding " + source, oome));
+                }
+            } finally {
+                timeout.cancel(false);
+                synchronized (this) {
+                    worker = null;
+                }
+                // A timeout which fired just now must not interrupt the next image
+                Thread.interrupted();
+            }
+        }
+
+        /**
+         * Reports the image as cancelled, unless it was reported already.
+         */
+        void cancel() {
+            if (reported.compareAndSet(false, true)) {
+                batch.imageFailed(source, new CancellationException("Cancelled decoding " + source));
+            }
+        }
+
+        private synchronized void interruptWorker() {
+            if (worker != null) {
+                worker.interrupt();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,113 @@
+package com.acker.simplezxing.batch;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A still image to decode with a {@link BatchDecoder}: a file, a content Uri or encoded bytes, in
+ * any format BitmapFactory understands. Only a reference is kept; the image is read when it is
+ * decoded.
+ */
+public abstract class ImageSource {
+
+    private ImageSource() {
+    }
+
+    public static ImageSource fromFile(File file) {
+        return new FileImageSource(file);
+    }
+
+    public static ImageSource fromUri(Uri uri) {
+        return new UriImageSource(uri);
+    }
+
+    /**
+     * @param data The encoded image, e.g. JPEG or PNG; not copied, so must not change.
+     */
+    public static ImageSource fromBytes(byte[] data) {
+        return new BytesImageSource(data);
+    }
+
+    /**
+     * Decodes the image with the options; with {@link BitmapFactory.Options#inJustDecodeBounds}
+     * set, only its size.
+     *
+     * @return The bitmap, or null if only the bounds were asked for or the image can't be decoded.
+     */
+    abstract Bitmap decode(Context context, BitmapFactory.Options options) throws IOException;
+
+    private static final class FileImageSource extends ImageSource {
+
+        private final File file;
+
+        FileImageSource(File file) {
+            this.file = file;
+        }
+
+        @Override
+        Bitmap decode(Context context, BitmapFactory.Options options) {
+            return BitmapFactory.decodeFile(file.getPath(), options);
+        }
+
+        @Override
+        public String toString() {
+            return file.getPath();
+        }
+
+    }
+
+    private static final class UriImageSource extends ImageSource {
+
+        private final Uri uri;
+
+        UriImageSource(Uri uri) {
+            this.uri = uri;
+        }
+
+        @Override
+        Bitmap decode(Context context, BitmapFactory.Options options) throws IOException {
+            InputStream in = context.getContentResolver().openInputStream(uri);
+            if (in == null) {
+                throw new IOException("Can't open " + uri);
+            }
+            try {
+                return BitmapFactory.decodeStream(in, null, options);
+            } finally {
+                in.close();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return uri.toString();
+        }
+
+    }
+
+    private static final class BytesImageSource extends ImageSource {
+
+        private final byte[] data;
+
+        BytesImageSource(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        Bitmap decode(Context context, BitmapFactory.Options options) {
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+
+        @Override
+        public String toString() {
+            return "byte[" + data.length + ']';
+        }
+
+    }
+
+}
@@ -16,13 +16,34 @@
 package com.acker.simplezxing.camera;
 
 import android.hardware.Camera;
-import android.os.AsyncTask;
+
+import com.acker.simplezxing.core.DecodeMetrics;
+import com.acker.simplezxing.core.FrameQualityGate;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * Focuses the camera when the decoders say the frames need it, rather than on a fixed interval:
+ * <ul>
+ * <li>at once when the {@link FrameQualityGate} finds a frame blurred;</li>
+ * <li>when the readers keep locating something that looks like a barcode without decoding it;</li>
+ * <li>when frames keep failing with nothing located;</li>
+ * <li>and, failing all of those, when nothing was found in focus for a while.</li>
+ * </ul>
+ * Frames decoded, or found sharp by the gate, hold focusing off, so the lens is left alone while it
+ * is doing its job. Focusing is asked of the camera on a scheduled executor of its own, never on a
+ * decode thread, and counted with how long it took in the session's {@link DecodeMetrics}. The
+ * decode threads only update atomics, so they never wait on the executor or the camera.
+ *
  * @date 2016-11-18 16:58
  * @auther GuoJinyu
  * @description modified
@@ -31,7 +52,22 @@ final class AutoFocusManager implements Camera.AutoFocusCallback {
 
     private static final String TAG = AutoFocusManager.class.getSimpleName();
 
-    private static final long AUTO_FOCUS_INTERVAL_MS = 1000L;
+    /**
+     * Leaves the lens this long to settle after focusing before it is asked again.
+     */
+    private static final long MIN_FOCUS_INTERVAL_MS = 300L;
+    /**
+     * Focuses again after this long without anything found in focus, even with no other reason to.
+     */
+    private static final long MAX_FOCUS_INTERVAL_MS = 2000L;
+    /**
+     * Failed frames in a row with something located in them before focusing.
+     */
+    private static final int CANDIDATE_FAILURE_STREAK = 3;
+    /**
+     * Failed frames in a row with nothing located in them before focusing.
+     */
+    private static final int FAILURE_STREAK = 15;
     private static final Collection<String> FOCUS_MODES_CALLING_AF;
 
     static {
@@ -40,71 +76,250 @@ final class AutoFocusManager implements Camera.AutoFocusCallback {
         FOCUS_MODES_CALLING_AF.add(Camera.Parameters.FOCUS_MODE_MACRO);
     }
 
+    /**
+     * Shared by all instances; a single thread, since focusing one camera at a time is all there is.
+     */
+    private static ScheduledExecutorService executor;
+
     private final boolean useAutoFocus;
     private final Camera camera;
-    private boolean stopped;
-    private boolean focusing;
-    private AsyncTask<?, ?, ?> outstandingTask;
+    private final DecodeMetrics metrics;
+    /**
+     * Held around each call to the camera, so that none is made once {@link #stop} has cancelled
+     * focusing. Never held with this, nor taken by the decode threads.
+     */
+    private final Object cameraLock = new Object();
+    private volatile boolean stopped;
+    /**
+     * Whether the camera was asked to focus, or is about to be, and has not reported back yet. Set
+     * by whoever triggers focusing first.
+     */
+    private final AtomicBoolean focusing;
+    private volatile long focusEndNanos;
+    /**
+     * When a frame was last decoded or found sharp.
+     */
+    private volatile long inFocusNanos;
+    private final AtomicInteger failureStreak;
+    private final AtomicInteger candidateFailureStreak;
+    // Guarded by this
+    private long focusStartNanos;
+    private ScheduledFuture<?> outstandingTask;
 
-    AutoFocusManager(Camera camera) {
+    /**
+     * Starts focusing at once.
+     *
+     * @param metrics Where to count the focusing and time it, may be null.
+     */
+    AutoFocusManager(Camera camera, DecodeMetrics metrics) {
         this.camera = camera;
+        this.metrics = metrics;
         String currentFocusMode = camera.getParameters().getFocusMode();
         useAutoFocus = FOCUS_MODES_CALLING_AF.contains(currentFocusMode);
         //Log.i(TAG, "Current focus mode '" + currentFocusMode + "'; use auto focus? " + useAutoFocus);
+        focusing = new AtomicBoolean();
+        failureStreak = new AtomicInteger();
+        candidateFailureStreak = new AtomicInteger();
+        inFocusNanos = System.nanoTime();
         start();
     }
 
+    private static synchronized ScheduledExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, TAG);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    synchronized void start() {
+        if (useAutoFocus && !stopped && focusing.compareAndSet(false, true)) {
+            schedule(DecodeMetrics.FocusTrigger.START, 0L);
+        }
+    }
+
+    /**
+     * Takes in how decoding a frame went, and focuses if it says the frames are out of focus. Called
+     * from the decode threads; takes no lock, and leaves focusing to the executor.
+     *
+     * @param decoded        Whether a barcode was found.
+     * @param candidateFound Whether the readers located something that looked like a barcode.
+     * @param verdict        What the quality gate made of the frame, null if it did not see it.
+     */
+    void onFrameDecoded(boolean decoded, boolean candidateFound, FrameQualityGate.Verdict verdict) {
+        if (!useAutoFocus || stopped) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (decoded || verdict == FrameQualityGate.Verdict.PASSED) {
+            // In focus, whatever else may be wrong
+            inFocusNanos = now;
+            failureStreak.set(0);
+            candidateFailureStreak.set(0);
+            return;
+        }
+        int failures = failureStreak.incrementAndGet();
+        int candidateFailures;
+        if (candidateFound) {
+            candidateFailures = candidateFailureStreak.incrementAndGet();
+        } else {
+            candidateFailures = 0;
+            candidateFailureStreak.set(0);
+        }
+        DecodeMetrics.FocusTrigger trigger;
+        if (verdict == FrameQualityGate.Verdict.BLURRED) {
+            trigger = DecodeMetrics.FocusTrigger.BLURRED;
+        } else if (candidateFailures >= CANDIDATE_FAILURE_STREAK) {
+            trigger = DecodeMetrics.FocusTrigger.CANDIDATES;
+        } else if (failures >= FAILURE_STREAK) {
+            trigger = DecodeMetrics.FocusTrigger.FAILURE_STREAK;
+        } else {
+            return;
+        }
+        if (now - focusEndNanos >= TimeUnit.MILLISECONDS.toNanos(MIN_FOCUS_INTERVAL_MS)
+                && focusing.compareAndSet(false, true)) {
+            post(trigger);
+        }
+    }
+
     @Override
     public synchronized void onAutoFocus(boolean success, Camera theCamera) {
-        focusing = false;
-        autoFocusAgainLater();
+        if (stopped || !focusing.get()) {
+            return;
+        }
+        focusEndNanos = System.nanoTime();
+        if (metrics != null) {
+            metrics.recordStage(DecodeMetrics.Stage.FOCUS, focusEndNanos - focusStartNanos);
+        }
+        // Frames from before focusing say nothing about the focus now
+        failureStreak.set(0);
+        candidateFailureStreak.set(0);
+        focusing.set(false);
+        scheduleFallback();
     }
 
-    private synchronized void autoFocusAgainLater() {
-        if (!stopped && outstandingTask == null) {
-            AutoFocusTask newTask = new AutoFocusTask();
-            try {
-                newTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
-                outstandingTask = newTask;
-            } catch (RejectedExecutionException ree) {
-                //Log.w(TAG, "Could not request auto focus", ree);
+    /**
+     * Asks the camera to focus on the executor as soon as it can, for a decode thread which has just
+     * set {@link #focusing}.
+     */
+    private void post(final DecodeMetrics.FocusTrigger trigger) {
+        try {
+            getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    autoFocus(trigger);
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            //Log.w(TAG, "Could not request auto focus", ree);
+            focusing.set(false);
+        }
+    }
+
+    /**
+     * Asks the camera to focus on the executor after the delay, instead of any focusing scheduled
+     * before. Guarded by this.
+     */
+    private void schedule(final DecodeMetrics.FocusTrigger trigger, long delayMs) {
+        cancelOutstandingTask();
+        try {
+            outstandingTask = getExecutor().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    autoFocus(trigger);
+                }
+            }, delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ree) {
+            //Log.w(TAG, "Could not request auto focus", ree);
+            if (trigger != DecodeMetrics.FocusTrigger.FALLBACK) {
+                focusing.set(false);
             }
         }
     }
 
-    synchronized void start() {
-        if (useAutoFocus) {
-            outstandingTask = null;
-            if (!stopped && !focusing) {
-                try {
-                    camera.autoFocus(this);
-                    focusing = true;
-                } catch (RuntimeException re) {
-                    // Have heard RuntimeException reported in Android 4.0.x+; continue?
-                    //Log.w(TAG, "Unexpected exception while focusing", re);
-                    // Try again later to keep cycle going
-                    autoFocusAgainLater();
+    /**
+     * Looks again once nothing could have been found in focus for {@link #MAX_FOCUS_INTERVAL_MS}.
+     * Guarded by this.
+     */
+    private void scheduleFallback() {
+        long sinceInFocusMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - Math.max(inFocusNanos, focusEndNanos));
+        schedule(DecodeMetrics.FocusTrigger.FALLBACK, Math.max(0L, MAX_FOCUS_INTERVAL_MS - sinceInFocusMs));
+    }
+
+    /**
+     * Runs on the executor. Decides under this, then asks the camera without holding it.
+     */
+    private void autoFocus(DecodeMetrics.FocusTrigger trigger) {
+        synchronized (this) {
+            // Focusing now, so whatever was scheduled is not needed any more
+            cancelOutstandingTask();
+            if (stopped) {
+                return;
+            }
+            if (trigger == DecodeMetrics.FocusTrigger.FALLBACK) {
+                if (System.nanoTime() - inFocusNanos < TimeUnit.MILLISECONDS.toNanos(MAX_FOCUS_INTERVAL_MS)) {
+                    // Found in focus since, so look again later
+                    scheduleFallback();
+                    return;
+                }
+                if (!focusing.compareAndSet(false, true)) {
+                    // Something else got there first
+                    return;
+                }
+            }
+            focusStartNanos = System.nanoTime();
+        }
+        try {
+            synchronized (cameraLock) {
+                if (stopped) {
+                    return;
+                }
+                camera.autoFocus(this);
+            }
+            if (metrics != null) {
+                metrics.recordFocusTrigger(trigger);
+            }
+        } catch (RuntimeException re) {
+            // Have heard RuntimeException reported in Android 4.0.x+; continue?
+            //Log.w(TAG, "Unexpected exception while focusing", re);
+            // Try again later to keep cycle going
+            synchronized (this) {
+                focusEndNanos = System.nanoTime();
+                focusing.set(false);
+                if (!stopped) {
+                    scheduleFallback();
                 }
             }
         }
     }
 
-    private synchronized void cancelOutstandingTask() {
+    /**
+     * Guarded by this.
+     */
+    private void cancelOutstandingTask() {
         if (outstandingTask != null) {
-            if (outstandingTask.getStatus() != AsyncTask.Status.FINISHED) {
-                outstandingTask.cancel(true);
-            }
+            outstandingTask.cancel(false);
             outstandingTask = null;
         }
     }
 
-    synchronized void stop() {
-        stopped = true;
-        if (useAutoFocus) {
+    void stop() {
+        synchronized (this) {
+            stopped = true;
             cancelOutstandingTask();
+        }
+        if (useAutoFocus) {
             // Doesn't hurt to call this even if not focusing
             try {
-                camera.cancelAutoFocus();
+                synchronized (cameraLock) {
+                    camera.cancelAutoFocus();
+                }
             } catch (RuntimeException re) {
                 // Have heard RuntimeException reported in Android 4.0.x+; continue?
                 //Log.w(TAG, "Unexpected exception while cancelling focusing", re);
@@ -112,17 +327,4 @@ final class AutoFocusManager implements Camera.AutoFocusCallback {
         }
     }
 
-    private final class AutoFocusTask extends AsyncTask<Object, Object, Object> {
-        @Override
-        protected Object doInBackground(Object... voids) {
-            try {
-                Thread.sleep(AUTO_FOCUS_INTERVAL_MS);
-            } catch (InterruptedException e) {
-                // continue
-            }
-            start();
-            return null;
-        }
-    }
-
 }
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2008 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.acker.simplezxing.camera;
+
+import android.content.Context;
+import android.graphics.Point;
+import android.hardware.Camera;
+import android.view.SurfaceHolder;
+
+import com.acker.simplezxing.camera.open.OpenCamera;
+import com.acker.simplezxing.camera.open.OpenCameraInterface;
+import com.acker.simplezxing.core.DecodeMetrics;
+import com.acker.simplezxing.core.Frame;
+import com.acker.simplezxing.core.FrameQualityGate;
+import com.acker.simplezxing.core.FrameSource;
+
+import java.io.IOException;
+
+/**
+ * Drives the {@link Camera} API, available on every version of Android. Preview frames are NV21
+ * buffers from a ring owned by {@link PreviewCallback}. The camera is opened on the camera thread,
+ * so its callbacks arrive on that thread's looper too. It is told when to focus by an
+ * {@link AutoFocusManager}, from how decoding the frames goes.
+ */
+final class Camera1Backend implements CameraBackend {
+
+    private final CameraConfigurationManager configManager;
+    /**
+     * Preview frames are delivered here, which we pass on to the consumers waiting for one, a frame
+     * each. The frames are written into a ring of buffers owned by the callback, which have to be
+     * handed back with {@link #releaseFrame}.
+     */
+    private final PreviewCallback previewCallback;
+    private volatile OpenCamera camera;
+    /**
+     * Set on the camera thread, read by the decode threads too.
+     */
+    private volatile AutoFocusManager autoFocusManager;
+    private DecodeMetrics metrics;
+    private boolean initialized;
+    private boolean previewing;
+
+    /**
+     * @param cheapPreviewSize  Whether to pick the smallest preview size which still samples the
+     *                          framing rect finely enough, rather than the one matching the screen.
+     * @param decodeThreadCount How many threads will ask for preview frames at the same time.
+     */
+    Camera1Backend(Context context, boolean needExposure, boolean cheapPreviewSize, int decodeThreadCount) {
+        configManager = new CameraConfigurationManager(context, needExposure, cheapPreviewSize);
+        previewCallback = new PreviewCallback(configManager, decodeThreadCount);
+    }
+
+    @Override
+    public void open() throws IOException {
+        OpenCamera theCamera = camera;
+        if (theCamera == null) {
+            theCamera = OpenCameraInterface.open(OpenCameraInterface.NO_REQUESTED_CAMERA);
+            if (theCamera == null) {
+                throw new IOException("Camera.open() failed to return object from driver");
+            }
+            camera = theCamera;
+        }
+
+        if (!initialized) {
+            initialized = true;
+            configManager.initFromCameraParameters(theCamera);
+        }
+
+        Camera cameraObject = theCamera.getCamera();
+        Camera.Parameters parameters = cameraObject.getParameters();
+        String parametersFlattened = parameters == null ? null : parameters.flatten(); // Save these, temporarily
+        try {
+            configManager.setDesiredCameraParameters(theCamera, configManager.isSafeModeNeeded());
+        } catch (RuntimeException re) {
+            // Driver failed
+            //Log.w(TAG, "Camera rejected parameters. Setting only minimal safe-mode parameters");
+            //Log.i(TAG, "Resetting to saved camera params: " + parametersFlattened);
+            // What worked before does not any more, so work the safe mode parameters out afresh
+            configManager.forgetConfiguration();
+            // Reset:
+            if (parametersFlattened != null) {
+                parameters = cameraObject.getParameters();
+                parameters.unflatten(parametersFlattened);
+                try {
+                    cameraObject.setParameters(parameters);
+                    configManager.setDesiredCameraParameters(theCamera, true);
+                } catch (RuntimeException re2) {
+                    // Well, darn. Give up
+                    //Log.w(TAG, "Camera rejected even safe-mode parameters! No configuration");
+                }
+            }
+        }
+    }
+
+    @Override
+    public void setPreviewDisplay(SurfaceHolder holder) throws IOException {
+        OpenCamera theCamera = camera;
+        if (theCamera != null) {
+            theCamera.getCamera().setPreviewDisplay(holder);
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return camera != null;
+    }
+
+    @Override
+    public void close() {
+        if (camera != null) {
+            previewCallback.stop();
+            camera.getCamera().release();
+            camera = null;
+        }
+    }
+
+    @Override
+    public void updateDisplayOrientation() {
+        OpenCamera theCamera = camera;
+        if (theCamera != null && initialized) {
+            configManager.updateDisplayOrientation(theCamera);
+        }
+    }
+
+    @Override
+    public void startPreview(DecodeMetrics metrics) {
+        OpenCamera theCamera = camera;
+        if (theCamera != null && !previewing) {
+            previewCallback.start(theCamera.getCamera());
+            theCamera.getCamera().startPreview();
+            previewing = true;
+            this.metrics = metrics;
+            autoFocusManager = new AutoFocusManager(theCamera.getCamera(), metrics);
+        }
+    }
+
+    @Override
+    public void stopPreview() {
+        if (autoFocusManager != null) {
+            autoFocusManager.stop();
+            autoFocusManager = null;
+        }
+        if (camera != null && previewing) {
+            camera.getCamera().stopPreview();
+            previewCallback.stop();
+            previewing = false;
+        }
+    }
+
+    @Override
+    public void setTorch(boolean newSetting) {
+        OpenCamera theCamera = camera;
+        if (theCamera != null) {
+            if (newSetting != configManager.getTorchState(theCamera.getCamera())) {
+                boolean wasAutoFocusManager = autoFocusManager != null;
+                if (wasAutoFocusManager) {
+                    autoFocusManager.stop();
+                    autoFocusManager = null;
+                }
+                configManager.setTorch(theCamera.getCamera(), newSetting);
+                if (wasAutoFocusManager) {
+                    // Starts focusing at once, for the new lighting
+                    autoFocusManager = new AutoFocusManager(theCamera.getCamera(), metrics);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void requestFrame(FrameSource.Consumer consumer) {
+        previewCallback.addConsumer(consumer);
+    }
+
+    @Override
+    public void releaseFrame(Frame frame) {
+        previewCallback.releaseBuffer(frame.getData());
+    }
+
+    @Override
+    public void onFrameDecoded(boolean decoded, boolean candidateFound, FrameQualityGate.Verdict verdict) {
+        AutoFocusManager theAutoFocusManager = autoFocusManager;
+        if (theAutoFocusManager != null) {
+            theAutoFocusManager.onFrameDecoded(decoded, candidateFound, verdict);
+        }
+    }
+
+    @Override
+    public Point getCameraResolution() {
+        return configManager.getCameraResolution();
+    }
+
+    @Override
+    public Point getScreenResolution() {
+        return configManager.getScreenResolution();
+    }
+
+}
@@ -0,0 +1,546 @@
+package com.acker.simplezxing.camera;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Range;
+import android.util.Rational;
+import android.util.Size;
+import android.view.Display;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+import android.view.WindowManager;
+
+import com.acker.simplezxing.core.DecodeMetrics;
+import com.acker.simplezxing.core.Frame;
+import com.acker.simplezxing.core.FrameQualityGate;
+import com.acker.simplezxing.core.FrameRequests;
+import com.acker.simplezxing.core.FrameSource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives the camera2 API, available from Lollipop. Frames come from an {@link ImageReader} in
+ * YUV_420_888, and the decoders read the Y plane of each image where it is, with no copy; the image
+ * goes back to the reader once released. Focus is left to continuous autofocus.
+ * <p>
+ * Camera callbacks and new images are handled on a thread of their own. The frames handed out are
+ * kept track of under a lock of their own, so decoders asking for and releasing frames never wait
+ * for the camera.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+final class Camera2Backend implements CameraBackend, ImageReader.OnImageAvailableListener {
+
+    private static final String TAG = Camera2Backend.class.getSimpleName();
+    /**
+     * How long {@link #open} waits for the camera, {@link #setPreviewDisplay} for the main thread and
+     * {@link #startPreview} for the capture session.
+     */
+    private static final long OPEN_TIMEOUT_MS = 2500L;
+    /**
+     * A 1080p image takes 3 MB; with many cores, some decode threads wait for an image instead.
+     */
+    private static final int MAX_IMAGES = 5;
+
+    private final Context context;
+    private final boolean needExposure;
+    private final boolean cheapPreviewSize;
+    /**
+     * One image being decoded by each decode thread, plus two for the reader to fill, which is what
+     * {@link ImageReader#acquireLatestImage()} needs, up to {@link #MAX_IMAGES}.
+     */
+    private final int maxImages;
+    /**
+     * Guards the frames: {@link #frameRequests} and {@link #deliveredImages}. Never held while talking
+     * to the camera.
+     */
+    private final Object frameLock = new Object();
+    private final FrameRequests frameRequests;
+    /**
+     * The image behind each frame being decoded.
+     */
+    private final Map<Frame, Image> deliveredImages;
+    private HandlerThread cameraThread;
+    private Handler cameraHandler;
+    private volatile CameraDevice device;
+    private CameraCharacteristics characteristics;
+    private int sensorOrientation;
+    private boolean frontFacing;
+    private Surface previewSurface;
+    private ImageReader imageReader;
+    private CameraCaptureSession session;
+    private boolean previewing;
+    private boolean torch;
+    private volatile Point cameraResolution;
+    private volatile Point screenResolution;
+    /**
+     * Clockwise rotation which makes the frames upright on the display.
+     */
+    private volatile int frameRotation;
+
+    /**
+     * @param cheapPreviewSize  Whether to pick the smallest preview size which still samples the
+     *                          framing rect finely enough, rather than the one matching the screen.
+     * @param decodeThreadCount How many threads will ask for preview frames at the same time.
+     */
+    Camera2Backend(Context context, boolean needExposure, boolean cheapPreviewSize, int decodeThreadCount) {
+        this.context = context;
+        this.needExposure = needExposure;
+        this.cheapPreviewSize = cheapPreviewSize;
+        maxImages = Math.min(decodeThreadCount + 2, MAX_IMAGES);
+        frameRequests = new FrameRequests(decodeThreadCount);
+        deliveredImages = new IdentityHashMap<>();
+    }
+
+    /**
+     * @return Whether the camera to use has better than legacy support for camera2. Legacy devices
+     * run camera2 on top of the old API, which is then better used directly.
+     */
+    static boolean isPreferred(Context context) {
+        android.hardware.camera2.CameraManager manager =
+                (android.hardware.camera2.CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        try {
+            String cameraId = findCameraId(manager);
+            if (cameraId == null) {
+                return false;
+            }
+            Integer level = manager.getCameraCharacteristics(cameraId)
+                    .get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+            return level != null && level != CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY;
+        } catch (CameraAccessException | RuntimeException e) {
+            //Log.w(TAG, "Could not read the camera's characteristics", e);
+            return false;
+        }
+    }
+
+    /**
+     * @return The first camera facing back, else the first camera, else null.
+     */
+    private static String findCameraId(android.hardware.camera2.CameraManager manager)
+            throws CameraAccessException {
+        String[] cameraIds = manager.getCameraIdList();
+        for (String cameraId : cameraIds) {
+            Integer facing = manager.getCameraCharacteristics(cameraId).get(CameraCharacteristics.LENS_FACING);
+            if (facing != null && facing == CameraMetadata.LENS_FACING_BACK) {
+                return cameraId;
+            }
+        }
+        return cameraIds.length > 0 ? cameraIds[0] : null;
+    }
+
+    @Override
+    public synchronized void open() throws IOException {
+        if (device != null) {
+            return;
+        }
+        android.hardware.camera2.CameraManager manager =
+                (android.hardware.camera2.CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        cameraThread = new HandlerThread(TAG);
+        cameraThread.start();
+        cameraHandler = new Handler(cameraThread.getLooper());
+        OpenCallback openCallback = new OpenCallback();
+        try {
+            String cameraId = findCameraId(manager);
+            if (cameraId == null) {
+                throw new IOException("No camera");
+            }
+            characteristics = manager.getCameraCharacteristics(cameraId);
+            Integer orientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+            sensorOrientation = orientation == null ? 90 : orientation;
+            Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
+            frontFacing = facing != null && facing == CameraMetadata.LENS_FACING_FRONT;
+            updateDisplayOrientation();
+            Point size = findBestPreviewSize(characteristics, screenResolution,
+                    cheapPreviewSize ? CameraManager.findFramingRect(screenResolution) : null);
+            cameraResolution = size;
+            imageReader = ImageReader.newInstance(size.x, size.y, ImageFormat.YUV_420_888, maxImages);
+            imageReader.setOnImageAvailableListener(this, cameraHandler);
+            manager.openCamera(cameraId, openCallback, cameraHandler);
+            device = openCallback.await(OPEN_TIMEOUT_MS);
+        } catch (CameraAccessException | RuntimeException e) {
+            // Including the SecurityException of a missing permission
+            close();
+            throw new IOException("Could not open the camera", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new IOException("Interrupted while opening the camera", e);
+        }
+        if (device == null) {
+            close();
+            throw new IOException("Camera did not open within " + OPEN_TIMEOUT_MS + " ms");
+        }
+    }
+
+    /**
+     * @param framingRect The framing rect on the screen to pick the cheapest size which is dense
+     *                    enough over it; null to pick the size matching the screen best.
+     * @return The YUV size to use which the preview surface can take too.
+     */
+    private static Point findBestPreviewSize(CameraCharacteristics characteristics, Point screenResolution,
+                                             Rect framingRect) throws IOException {
+        StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        Size[] yuvSizes = map == null ? null : map.getOutputSizes(ImageFormat.YUV_420_888);
+        if (yuvSizes == null || yuvSizes.length == 0) {
+            throw new IOException("Camera has no YUV output");
+        }
+        Size[] previewSizes = map.getOutputSizes(SurfaceHolder.class);
+        Set<Size> previewSizeSet = new HashSet<>(previewSizes == null
+                ? Arrays.asList(yuvSizes)
+                : Arrays.asList(previewSizes));
+        List<Point> sizes = new ArrayList<>(yuvSizes.length);
+        for (Size size : yuvSizes) {
+            if (previewSizeSet.contains(size)) {
+                sizes.add(new Point(size.getWidth(), size.getHeight()));
+            }
+        }
+        Point bestSize = framingRect == null
+                ? CameraConfigurationUtils.findBestPreviewSize(sizes, screenResolution)
+                : CameraConfigurationUtils.findCheapestPreviewSize(sizes, screenResolution, framingRect);
+        return bestSize != null ? bestSize : new Point(yuvSizes[0].getWidth(), yuvSizes[0].getHeight());
+    }
+
+    @Override
+    public synchronized void setPreviewDisplay(final SurfaceHolder holder) throws IOException {
+        final Point size = cameraResolution;
+        if (device == null || size == null) {
+            return;
+        }
+        // Views may only be touched on the main thread
+        final CountDownLatch sizeSet = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                holder.setFixedSize(size.x, size.y);
+                sizeSet.countDown();
+            }
+        });
+        try {
+            if (!sizeSet.await(OPEN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Main thread did not size the preview within " + OPEN_TIMEOUT_MS + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while sizing the preview", e);
+        }
+        previewSurface = holder.getSurface();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return device != null;
+    }
+
+    @Override
+    public synchronized void close() {
+        stopPreview();
+        if (device != null) {
+            device.close();
+            device = null;
+        }
+        if (imageReader != null) {
+            imageReader.setOnImageAvailableListener(null, null);
+            synchronized (frameLock) {
+                // The decoders have quit, so frames still out will never be released
+                for (Image image : deliveredImages.values()) {
+                    image.close();
+                }
+                deliveredImages.clear();
+            }
+            imageReader.close();
+            imageReader = null;
+        }
+        previewSurface = null;
+        if (cameraThread != null) {
+            cameraThread.quitSafely();
+            cameraThread = null;
+            cameraHandler = null;
+        }
+    }
+
+    @Override
+    public synchronized void updateDisplayOrientation() {
+        WindowManager manager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        Display display = manager.getDefaultDisplay();
+        Point theScreenResolution = new Point();
+        display.getSize(theScreenResolution);
+        screenResolution = theScreenResolution;
+        // Surface.ROTATION_0 to ROTATION_270 are 0 to 3
+        int cwRotationFromNaturalToDisplay = display.getRotation() * 90;
+        frameRotation = frontFacing
+                ? (sensorOrientation + cwRotationFromNaturalToDisplay) % 360
+                : (360 + sensorOrientation - cwRotationFromNaturalToDisplay) % 360;
+    }
+
+    @Override
+    public synchronized void startPreview(DecodeMetrics metrics) throws IOException {
+        if (device == null || previewing || previewSurface == null) {
+            return;
+        }
+        SessionCallback sessionCallback = new SessionCallback();
+        try {
+            device.createCaptureSession(Arrays.asList(previewSurface, imageReader.getSurface()),
+                    sessionCallback, cameraHandler);
+            session = sessionCallback.await(OPEN_TIMEOUT_MS);
+        } catch (CameraAccessException | IllegalStateException e) {
+            throw new IOException("Could not start the preview", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while starting the preview", e);
+        }
+        if (session == null) {
+            throw new IOException("Capture session could not be configured within " + OPEN_TIMEOUT_MS + " ms");
+        }
+        previewing = true;
+        updateRepeatingRequest();
+    }
+
+    @Override
+    public synchronized void stopPreview() {
+        previewing = false;
+        if (session != null) {
+            session.close();
+            session = null;
+        }
+        synchronized (frameLock) {
+            frameRequests.clear();
+        }
+    }
+
+    @Override
+    public synchronized void setTorch(boolean newSetting) {
+        if (torch != newSetting) {
+            torch = newSetting;
+            updateRepeatingRequest();
+        }
+    }
+
+    /**
+     * Sends the settings to the camera, to be applied to every frame from now on.
+     */
+    private void updateRepeatingRequest() {
+        if (session == null) {
+            return;
+        }
+        try {
+            CaptureRequest.Builder builder = device.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            builder.addTarget(previewSurface);
+            builder.addTarget(imageReader.getSurface());
+            int[] afModes = characteristics.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES);
+            if (contains(afModes, CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_PICTURE)) {
+                builder.set(CaptureRequest.CONTROL_AF_MODE, CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+            } else if (contains(afModes, CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_VIDEO)) {
+                builder.set(CaptureRequest.CONTROL_AF_MODE, CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_VIDEO);
+            }
+            if (contains(characteristics.get(CameraCharacteristics.CONTROL_AVAILABLE_SCENE_MODES),
+                    CameraMetadata.CONTROL_SCENE_MODE_BARCODE)) {
+                builder.set(CaptureRequest.CONTROL_MODE, CameraMetadata.CONTROL_MODE_USE_SCENE_MODE);
+                builder.set(CaptureRequest.CONTROL_SCENE_MODE, CameraMetadata.CONTROL_SCENE_MODE_BARCODE);
+            }
+            builder.set(CaptureRequest.CONTROL_AE_MODE, CameraMetadata.CONTROL_AE_MODE_ON);
+            builder.set(CaptureRequest.FLASH_MODE, torch ? CameraMetadata.FLASH_MODE_TORCH : CameraMetadata.FLASH_MODE_OFF);
+            if (needExposure) {
+                Range<Integer> range = characteristics.get(CameraCharacteristics.CONTROL_AE_COMPENSATION_RANGE);
+                Rational step = characteristics.get(CameraCharacteristics.CONTROL_AE_COMPENSATION_STEP);
+                if (range != null && step != null && step.floatValue() > 0.0f
+                        && (range.getLower() != 0 || range.getUpper() != 0)) {
+                    builder.set(CaptureRequest.CONTROL_AE_EXPOSURE_COMPENSATION,
+                            CameraConfigurationUtils.findBestExposureSteps(range.getLower(), range.getUpper(),
+                                    step.floatValue(), torch));
+                }
+            }
+            session.setRepeatingRequest(builder.build(), null, cameraHandler);
+        } catch (CameraAccessException | IllegalStateException e) {
+            //Log.w(TAG, "Could not update the capture request", e);
+        }
+    }
+
+    private static boolean contains(int[] values, int value) {
+        if (values != null) {
+            for (int v : values) {
+                if (v == value) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void onFrameDecoded(boolean decoded, boolean candidateFound, FrameQualityGate.Verdict verdict) {
+        // Focus is continuous, run by the camera itself
+    }
+
+    @Override
+    public void requestFrame(FrameSource.Consumer consumer) {
+        synchronized (frameLock) {
+            frameRequests.add(consumer);
+        }
+    }
+
+    @Override
+    public void onImageAvailable(ImageReader reader) {
+        Image image;
+        try {
+            image = reader.acquireLatestImage();
+        } catch (IllegalStateException e) {
+            // Every image is out; one will be released soon
+            return;
+        }
+        if (image == null) {
+            return;
+        }
+        synchronized (frameLock) {
+            FrameSource.Consumer consumer = frameRequests.poll();
+            if (consumer == null) {
+                // Nobody wants this frame, so let the reader fill the image again right away.
+                image.close();
+                return;
+            }
+            Image.Plane plane = image.getPlanes()[0];
+            Frame frame = new Frame(plane.getBuffer(), plane.getRowStride(), image.getWidth(), image.getHeight(),
+                    frameRotation, image.getTimestamp());
+            deliveredImages.put(frame, image);
+            consumer.onFrame(frame);
+        }
+    }
+
+    @Override
+    public void releaseFrame(Frame frame) {
+        synchronized (frameLock) {
+            Image image = deliveredImages.remove(frame);
+            // Already closed with the camera otherwise
+            if (image != null) {
+                image.close();
+            }
+        }
+    }
+
+    @Override
+    public Point getCameraResolution() {
+        return cameraResolution;
+    }
+
+    @Override
+    public Point getScreenResolution() {
+        return screenResolution;
+    }
+
+    /**
+     * Hands over the configured capture session, or closes it if {@link #await} already gave up on it.
+     */
+    private static final class SessionCallback extends CameraCaptureSession.StateCallback {
+
+        private CameraCaptureSession session;
+        private boolean done;
+
+        /**
+         * @return The configured session, or null if it failed or took longer than the timeout.
+         */
+        synchronized CameraCaptureSession await(long timeoutMs) throws InterruptedException {
+            long deadline = SystemClock.elapsedRealtime() + timeoutMs;
+            long remaining = timeoutMs;
+            while (!done && remaining > 0L) {
+                wait(remaining);
+                remaining = deadline - SystemClock.elapsedRealtime();
+            }
+            done = true;
+            return session;
+        }
+
+        @Override
+        public synchronized void onConfigured(CameraCaptureSession configuredSession) {
+            if (done) {
+                configuredSession.close();
+                return;
+            }
+            session = configuredSession;
+            done = true;
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void onConfigureFailed(CameraCaptureSession failedSession) {
+            done = true;
+            notifyAll();
+        }
+
+    }
+
+    /**
+     * Hands over the opened camera, or closes it if {@link #await} already gave up on it.
+     */
+    private static final class OpenCallback extends CameraDevice.StateCallback {
+
+        private CameraDevice device;
+        private boolean done;
+
+        /**
+         * @return The opened camera, or null if it failed or took longer than the timeout.
+         */
+        synchronized CameraDevice await(long timeoutMs) throws InterruptedException {
+            long deadline = SystemClock.elapsedRealtime() + timeoutMs;
+            long remaining = timeoutMs;
+            while (!done && remaining > 0L) {
+                wait(remaining);
+                remaining = deadline - SystemClock.elapsedRealtime();
+            }
+            done = true;
+            return device;
+        }
+
+        @Override
+        public synchronized void onOpened(CameraDevice camera) {
+            if (done) {
+                camera.close();
+                return;
+            }
+            device = camera;
+            done = true;
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void onDisconnected(CameraDevice camera) {
+            //Log.w(TAG, "Camera disconnected");
+            camera.close();
+            done = true;
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void onError(CameraDevice camera, int error) {
+            //Log.w(TAG, "Camera error " + error);
+            camera.close();
+            done = true;
+            notifyAll();
+        }
+
+    }
+
+}
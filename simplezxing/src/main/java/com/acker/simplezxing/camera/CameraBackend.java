@@ -0,0 +1,87 @@
+package com.acker.simplezxing.camera;
+
+import android.graphics.Point;
+import android.view.SurfaceHolder;
+
+import com.acker.simplezxing.core.DecodeMetrics;
+import com.acker.simplezxing.core.FrameQualityGate;
+import com.acker.simplezxing.core.FrameSource;
+
+import java.io.IOException;
+
+/**
+ * One camera API as {@link CameraManager} drives it: opening and configuring the camera, running
+ * its preview and torch, and handing out preview frames one request at a time. The geometry of the
+ * scan area is worked out by CameraManager on top of it, from the two resolutions.
+ * <p>
+ * Frames are handed out as a plain Java {@link FrameSource}, which is all the decoders see of a
+ * camera, so they can be fed by a fake source on the JVM instead.
+ * <p>
+ * CameraManager calls everything which talks to the camera on its camera thread, one call at a
+ * time. Only {@link #isOpen}, {@link #requestFrame}, {@link #releaseFrame} and
+ * {@link #onFrameDecoded} are called from other threads, and must not wait on the camera.
+ */
+interface CameraBackend extends FrameSource {
+
+    /**
+     * Opens the camera and configures it, which needs no preview surface yet.
+     *
+     * @throws IOException If the camera could not be opened.
+     */
+    void open() throws IOException;
+
+    /**
+     * Makes the open camera preview into the holder, once its surface exists.
+     *
+     * @throws IOException If the camera cannot use the surface.
+     */
+    void setPreviewDisplay(SurfaceHolder holder) throws IOException;
+
+    boolean isOpen();
+
+    /**
+     * Closes the camera if open. Meant for once the decoders have quit: frames still out are taken
+     * back, and releasing them afterwards does nothing.
+     */
+    void close();
+
+    /**
+     * Follows a rotation of the display which keeps the screen's width and height, such as from
+     * landscape to reverse landscape, without stopping the preview.
+     */
+    void updateDisplayOrientation();
+
+    /**
+     * Starts the preview, and returns once frames are on their way.
+     *
+     * @param metrics Where to count the focusing the preview needs and time it, may be null.
+     * @throws IOException If the camera could not start the preview.
+     */
+    void startPreview(DecodeMetrics metrics) throws IOException;
+
+    void stopPreview();
+
+    void setTorch(boolean on);
+
+    /**
+     * Takes in how decoding a frame went, for a camera which is told when to focus.
+     *
+     * @param decoded        Whether a barcode was found.
+     * @param candidateFound Whether the readers located something that looked like a barcode.
+     * @param verdict        What the quality gate made of the frame, null if it did not see it.
+     */
+    void onFrameDecoded(boolean decoded, boolean candidateFound, FrameQualityGate.Verdict verdict);
+
+    /**
+     * @return The size of the preview frames in the camera's landscape orientation, or null if the
+     * camera was never opened.
+     */
+    Point getCameraResolution();
+
+    /**
+     * @return The size of the screen in its current orientation, or null if the camera was never
+     * opened.
+     */
+    Point getScreenResolution();
+
+}
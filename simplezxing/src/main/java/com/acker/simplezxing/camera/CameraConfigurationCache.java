@@ -0,0 +1,158 @@
+package com.acker.simplezxing.camera;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Point;
+import android.hardware.Camera;
+import android.os.Build;
+
+import com.acker.simplezxing.camera.open.OpenCamera;
+
+import java.util.List;
+
+/**
+ * Keeps what the camera settled on in the app's own preferences: the preview size, focus mode and
+ * scene mode, and whether only the safe mode parameters were accepted. There is one entry for each
+ * camera, screen resolution and preview size policy. An entry is only used on the OS build that
+ * wrote it, and only while the camera reports the same supported parameters. Otherwise the
+ * parameters are worked out again and replace the entry.
+ */
+final class CameraConfigurationCache {
+
+    private static final String PREFS_NAME = "simplezxing_camera_configuration";
+    private static final String KEY_PREFIX_CONFIGURATION = "configuration_";
+    private static final String SEPARATOR = "\n";
+
+    private final SharedPreferences preferences;
+
+    CameraConfigurationCache(Context context) {
+        preferences = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @param cheapPreviewSize Whether the preview size is the cheapest one dense enough, rather than
+     *                         the one matching the screen.
+     */
+    static String getKey(OpenCamera camera, Point screenResolution, boolean cheapPreviewSize) {
+        return KEY_PREFIX_CONFIGURATION + camera.getIndex() + '_' + camera.getFacing() + '_'
+                + screenResolution.x + 'x' + screenResolution.y + (cheapPreviewSize ? "_cheap" : "");
+    }
+
+    /**
+     * @return A hash of everything the camera supports which the configuration is chosen from, which
+     * changes when the camera reports a different set of parameters.
+     */
+    static int getSignature(Camera.Parameters parameters) {
+        StringBuilder signature = new StringBuilder();
+        List<Camera.Size> sizes = parameters.getSupportedPreviewSizes();
+        if (sizes != null) {
+            for (Camera.Size size : sizes) {
+                signature.append(size.width).append('x').append(size.height).append(',');
+            }
+        }
+        signature.append(';').append(parameters.getSupportedFocusModes())
+                .append(';').append(parameters.getSupportedSceneModes())
+                .append(';').append(parameters.getSupportedFlashModes())
+                .append(';').append(parameters.getMinExposureCompensation())
+                .append(';').append(parameters.getMaxExposureCompensation())
+                .append(';').append(parameters.getMaxNumFocusAreas())
+                .append(';').append(parameters.getMaxNumMeteringAreas())
+                .append(';').append(parameters.isZoomSupported() ? parameters.getMaxZoom() : -1)
+                .append(';').append(parameters.isVideoStabilizationSupported());
+        return signature.toString().hashCode();
+    }
+
+    /**
+     * @return The entry under the key, or null if there is none, or it was written by another OS
+     * build or for another set of parameters.
+     */
+    Entry get(String key, int signature) {
+        String value = preferences.getString(key, null);
+        if (value == null) {
+            return null;
+        }
+        String[] fields = value.split(SEPARATOR, -1);
+        if (fields.length != 7 || !Build.FINGERPRINT.equals(fields[0])) {
+            return null;
+        }
+        try {
+            if (Integer.parseInt(fields[1]) != signature) {
+                return null;
+            }
+            Point previewSize = new Point(Integer.parseInt(fields[2]), Integer.parseInt(fields[3]));
+            return new Entry(previewSize, emptyToNull(fields[4]), emptyToNull(fields[5]),
+                    Boolean.parseBoolean(fields[6]));
+        } catch (NumberFormatException nfe) {
+            return null;
+        }
+    }
+
+    void put(String key, int signature, Entry entry) {
+        String value = Build.FINGERPRINT + SEPARATOR
+                + signature + SEPARATOR
+                + entry.getPreviewSize().x + SEPARATOR
+                + entry.getPreviewSize().y + SEPARATOR
+                + nullToEmpty(entry.getFocusMode()) + SEPARATOR
+                + nullToEmpty(entry.getSceneMode()) + SEPARATOR
+                + entry.isSafeMode();
+        // apply() writes to disk in the background
+        preferences.edit().putString(key, value).apply();
+    }
+
+    void remove(String key) {
+        preferences.edit().remove(key).apply();
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    /**
+     * What the camera settled on. Immutable.
+     */
+    static final class Entry {
+
+        private final Point previewSize;
+        private final String focusMode;
+        private final String sceneMode;
+        private final boolean safeMode;
+
+        Entry(Point previewSize, String focusMode, String sceneMode, boolean safeMode) {
+            this.previewSize = new Point(previewSize);
+            this.focusMode = focusMode;
+            this.sceneMode = sceneMode;
+            this.safeMode = safeMode;
+        }
+
+        Point getPreviewSize() {
+            return new Point(previewSize);
+        }
+
+        /**
+         * @return The focus mode, or null if the camera reported none.
+         */
+        String getFocusMode() {
+            return focusMode;
+        }
+
+        /**
+         * @return The scene mode, or null if the camera reported none.
+         */
+        String getSceneMode() {
+            return sceneMode;
+        }
+
+        /**
+         * @return Whether the camera only accepted the safe mode parameters.
+         */
+        boolean isSafeMode() {
+            return safeMode;
+        }
+
+    }
+
+}
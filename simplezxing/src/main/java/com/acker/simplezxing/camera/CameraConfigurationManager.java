@@ -40,15 +40,29 @@ final class CameraConfigurationManager {
     private static final String TAG = "CameraConfiguration";
 
     private final Context context;
+    private final CameraConfigurationCache cache;
+    private final boolean cheapPreviewSize;
     private int cwRotationFromDisplayToCamera;
     private Point screenResolution;
     private Point cameraResolution;
     private Point bestPreviewSize;
     private boolean needExposure;
+    private String cacheKey;
+    private int parametersSignature;
+    /**
+     * What the camera settled on when last opened with this screen, null if it has to be worked out.
+     */
+    private CameraConfigurationCache.Entry cachedConfiguration;
 
-    CameraConfigurationManager(Context context, boolean needExposure) {
+    /**
+     * @param cheapPreviewSize  Whether to pick the smallest preview size which still samples the
+     *                          framing rect finely enough, rather than the one matching the screen.
+     */
+    CameraConfigurationManager(Context context, boolean needExposure, boolean cheapPreviewSize) {
         this.context = context;
         this.needExposure = needExposure;
+        this.cheapPreviewSize = cheapPreviewSize;
+        cache = new CameraConfigurationCache(context);
     }
 
     /**
@@ -59,6 +73,69 @@ final class CameraConfigurationManager {
         WindowManager manager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
         Display display = manager.getDefaultDisplay();
 
+        cwRotationFromDisplayToCamera = findCwRotationFromDisplayToCamera(camera, display);
+        int cwNeededRotation;
+        if (camera.getFacing() == CameraFacing.FRONT) {
+            //Log.i(TAG, "Compensating rotation for front camera");
+            cwNeededRotation = (360 - cwRotationFromDisplayToCamera) % 360;
+        } else {
+            cwNeededRotation = cwRotationFromDisplayToCamera;
+        }
+        //Log.i(TAG, "Clockwise rotation from display to camera: " + cwNeededRotation);
+
+        Point theScreenResolution = new Point();
+        display.getSize(theScreenResolution);
+        screenResolution = theScreenResolution;
+        //Log.i(TAG, "Screen resolution in current orientation: " + screenResolution);
+        cacheKey = CameraConfigurationCache.getKey(camera, screenResolution, cheapPreviewSize);
+        parametersSignature = CameraConfigurationCache.getSignature(parameters);
+        cachedConfiguration = cache.get(cacheKey, parametersSignature);
+        if (cachedConfiguration != null) {
+            bestPreviewSize = cachedConfiguration.getPreviewSize();
+        } else {
+            bestPreviewSize = CameraConfigurationUtils.findBestPreviewSizeValue(parameters, screenResolution,
+                    cheapPreviewSize ? CameraManager.findFramingRect(screenResolution) : null);
+        }
+        //Log.i(TAG, "Best available preview size: " + bestPreviewSize);
+        cameraResolution = new Point(bestPreviewSize);
+        //Log.i(TAG, "Camera resolution: " + cameraResolution);
+    }
+
+    /**
+     * @return Whether the camera is known to accept only the safe mode parameters.
+     */
+    boolean isSafeModeNeeded() {
+        return cachedConfiguration != null && cachedConfiguration.isSafeMode();
+    }
+
+    /**
+     * Forgets what the camera settled on before, after it rejected it, so that the parameters are
+     * worked out again.
+     */
+    void forgetConfiguration() {
+        if (cachedConfiguration != null) {
+            cachedConfiguration = null;
+            cache.remove(cacheKey);
+        }
+    }
+
+    /**
+     * Follows a rotation of the display on the open camera, without stopping its preview. The
+     * preview size is kept, so this only suits rotations which leave the screen's width and height
+     * as they were, such as from landscape to reverse landscape.
+     */
+    void updateDisplayOrientation(OpenCamera camera) {
+        WindowManager manager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        Display display = manager.getDefaultDisplay();
+        cwRotationFromDisplayToCamera = findCwRotationFromDisplayToCamera(camera, display);
+        Point theScreenResolution = new Point();
+        display.getSize(theScreenResolution);
+        screenResolution = theScreenResolution;
+        // Allowed while previewing since API 14
+        camera.getCamera().setDisplayOrientation(cwRotationFromDisplayToCamera);
+    }
+
+    private static int findCwRotationFromDisplayToCamera(OpenCamera camera, Display display) {
         int displayRotation = display.getRotation();
         int cwRotationFromNaturalToDisplay;
         switch (displayRotation) {
@@ -93,25 +170,9 @@ final class CameraConfigurationManager {
             //Log.i(TAG, "Front camera overriden to: " + cwRotationFromNaturalToCamera);
         }
 
-        cwRotationFromDisplayToCamera = (360 + cwRotationFromNaturalToCamera - cwRotationFromNaturalToDisplay) % 360;
+        int cwRotationFromDisplayToCamera = (360 + cwRotationFromNaturalToCamera - cwRotationFromNaturalToDisplay) % 360;
         //Log.i(TAG, "Final display orientation: " + cwRotationFromDisplayToCamera);
-        int cwNeededRotation;
-        if (camera.getFacing() == CameraFacing.FRONT) {
-            //Log.i(TAG, "Compensating rotation for front camera");
-            cwNeededRotation = (360 - cwRotationFromDisplayToCamera) % 360;
-        } else {
-            cwNeededRotation = cwRotationFromDisplayToCamera;
-        }
-        //Log.i(TAG, "Clockwise rotation from display to camera: " + cwNeededRotation);
-
-        Point theScreenResolution = new Point();
-        display.getSize(theScreenResolution);
-        screenResolution = theScreenResolution;
-        //Log.i(TAG, "Screen resolution in current orientation: " + screenResolution);
-        cameraResolution = CameraConfigurationUtils.findBestPreviewSizeValue(parameters, screenResolution);
-        //Log.i(TAG, "Camera resolution: " + cameraResolution);
-        bestPreviewSize = CameraConfigurationUtils.findBestPreviewSizeValue(parameters, screenResolution);
-        //Log.i(TAG, "Best available preview size: " + bestPreviewSize);
+        return cwRotationFromDisplayToCamera;
     }
 
     void setDesiredCameraParameters(OpenCamera camera, boolean safeMode) {
@@ -126,14 +187,27 @@ final class CameraConfigurationManager {
         if (safeMode) {
             //Log.w(TAG, "In camera config safe mode -- most settings will not be honored");
         }
+        CameraConfigurationCache.Entry cached = cachedConfiguration;
         initializeTorch(parameters, safeMode);
-        CameraConfigurationUtils.setFocus(
-                parameters,
-                true,
-                true,
-                safeMode);
+        if (cached != null) {
+            // Worked out when the camera was last opened, so apply it without searching again
+            if (cached.getFocusMode() != null) {
+                parameters.setFocusMode(cached.getFocusMode());
+            }
+            if (!safeMode && cached.getSceneMode() != null) {
+                parameters.setSceneMode(cached.getSceneMode());
+            }
+        } else {
+            CameraConfigurationUtils.setFocus(
+                    parameters,
+                    true,
+                    true,
+                    safeMode);
+            if (!safeMode) {
+                CameraConfigurationUtils.setBarcodeSceneMode(parameters);
+            }
+        }
         if (!safeMode) {
-            CameraConfigurationUtils.setBarcodeSceneMode(parameters);
             CameraConfigurationUtils.setVideoStabilization(parameters);
             CameraConfigurationUtils.setFocusArea(parameters);
             CameraConfigurationUtils.setMetering(parameters);
@@ -145,6 +219,10 @@ final class CameraConfigurationManager {
         }
         theCamera.setParameters(parameters);
         theCamera.setDisplayOrientation(cwRotationFromDisplayToCamera);
+        if (cached != null) {
+            // What the camera made of these was checked when they were cached
+            return;
+        }
         Camera.Parameters afterParameters = theCamera.getParameters();
         Camera.Size afterSize = afterParameters.getPreviewSize();
         if (afterSize != null && (bestPreviewSize.x != afterSize.width || bestPreviewSize.y != afterSize.height)) {
@@ -153,6 +231,9 @@ final class CameraConfigurationManager {
             bestPreviewSize.x = afterSize.width;
             bestPreviewSize.y = afterSize.height;
         }
+        cachedConfiguration = new CameraConfigurationCache.Entry(bestPreviewSize, afterParameters.getFocusMode(),
+                afterParameters.getSceneMode(), safeMode);
+        cache.put(cacheKey, parametersSignature, cachedConfiguration);
     }
 
     Point getCameraResolution() {
@@ -44,6 +44,10 @@ final class CameraConfigurationUtils {
     private static final String TAG = "CameraConfiguration";
 
     private static final int MIN_PREVIEW_PIXELS = 480 * 320; // normal screen
+    /**
+     * Enough for dense QR codes filling most of the framing rect to keep a few pixels per module.
+     */
+    private static final int MIN_FRAMING_RECT_PREVIEW_PIXELS = 540;
     private static final float MAX_EXPOSURE_COMPENSATION = 1.5f;
     private static final float MIN_EXPOSURE_COMPENSATION = 0.0f;
     private static final double MAX_ASPECT_DISTORTION = 0.15;
@@ -115,16 +119,11 @@ final class CameraConfigurationUtils {
         int maxExposure = parameters.getMaxExposureCompensation();
         float step = parameters.getExposureCompensationStep();
         if ((minExposure != 0 || maxExposure != 0) && step > 0.0f) {
-            // Set low when light is on
-            float targetCompensation = lightOn ? MIN_EXPOSURE_COMPENSATION : MAX_EXPOSURE_COMPENSATION;
-            int compensationSteps = Math.round(targetCompensation / step);
-            float actualCompensation = step * compensationSteps;
-            // Clamp value:
-            compensationSteps = Math.max(Math.min(compensationSteps, maxExposure), minExposure);
+            int compensationSteps = findBestExposureSteps(minExposure, maxExposure, step, lightOn);
             if (parameters.getExposureCompensation() == compensationSteps) {
-                //Log.i(TAG, "Exposure compensation already set to " + compensationSteps + " / " + actualCompensation);
+                //Log.i(TAG, "Exposure compensation already set to " + compensationSteps);
             } else {
-                //Log.i(TAG, "Setting exposure compensation to " + compensationSteps + " / " + actualCompensation);
+                //Log.i(TAG, "Setting exposure compensation to " + compensationSteps);
                 parameters.setExposureCompensation(compensationSteps);
             }
         } else {
@@ -133,6 +132,20 @@ final class CameraConfigurationUtils {
     }
 
 
+    /**
+     * @param minExposure The lowest exposure compensation, in steps.
+     * @param maxExposure The highest exposure compensation, in steps.
+     * @param step        The size of a step in EV.
+     * @return The exposure compensation to use, in steps: high in the dark, low when the light is on.
+     */
+    static int findBestExposureSteps(int minExposure, int maxExposure, float step, boolean lightOn) {
+        // Set low when light is on
+        float targetCompensation = lightOn ? MIN_EXPOSURE_COMPENSATION : MAX_EXPOSURE_COMPENSATION;
+        int compensationSteps = Math.round(targetCompensation / step);
+        // Clamp value:
+        return Math.max(Math.min(compensationSteps, maxExposure), minExposure);
+    }
+
     static void setFocusArea(Camera.Parameters parameters) {
         if (parameters.getMaxNumFocusAreas() > 0) {
             //Log.i(TAG, "Old focus areas: " + toString(parameters.getFocusAreas()));
@@ -186,7 +199,12 @@ final class CameraConfigurationUtils {
         }
     }
 
-    static Point findBestPreviewSizeValue(Camera.Parameters parameters, Point screenResolution) {
+    /**
+     * @param framingRect The framing rect on the screen to pick the cheapest size which is dense
+     *                    enough over it, see {@link #findCheapestPreviewSize}; null to pick the best
+     *                    match for the screen, see {@link #findBestPreviewSize}.
+     */
+    static Point findBestPreviewSizeValue(Camera.Parameters parameters, Point screenResolution, Rect framingRect) {
 
         List<Camera.Size> rawSupportedSizes = parameters.getSupportedPreviewSizes();
         if (rawSupportedSizes == null) {
@@ -197,14 +215,105 @@ final class CameraConfigurationUtils {
             }
             return new Point(defaultSize.width, defaultSize.height);
         }
+        List<Point> supportedSizes = new ArrayList<>(rawSupportedSizes.size());
+        for (Camera.Size supportedSize : rawSupportedSizes) {
+            supportedSizes.add(new Point(supportedSize.width, supportedSize.height));
+        }
+        Point bestSize = framingRect == null
+                ? findBestPreviewSize(supportedSizes, screenResolution)
+                : findCheapestPreviewSize(supportedSizes, screenResolution, framingRect);
+        if (bestSize != null) {
+            return bestSize;
+        }
+
+        // If there is nothing at all suitable, return current preview size
+        Camera.Size defaultPreview = parameters.getPreviewSize();
+        if (defaultPreview == null) {
+            throw new IllegalStateException("Parameters contained no preview size!");
+        }
+        Point defaultSize = new Point(defaultPreview.width, defaultPreview.height);
+        //Log.i(TAG, "No suitable preview sizes, using default: " + defaultSize);
+        return defaultSize;
+    }
+
+    /**
+     * Picks the preview size matching the screen exactly, else the largest one close enough to
+     * its aspect ratio. Works on the sizes of any camera API.
+     *
+     * @param supportedSizes   The sizes the camera can deliver, in its landscape orientation.
+     * @param screenResolution The size of the screen in its current orientation.
+     * @return The size to use, or null if none is suitable.
+     */
+    static Point findBestPreviewSize(List<Point> supportedSizes, Point screenResolution) {
+        List<Point> suitableSizes = findSuitablePreviewSizes(supportedSizes, screenResolution);
+        boolean isScreenPortrait = screenResolution.x < screenResolution.y;
+        for (Point suitableSize : suitableSizes) {
+            int maybeFlippedWidth = isScreenPortrait ? suitableSize.y : suitableSize.x;
+            int maybeFlippedHeight = isScreenPortrait ? suitableSize.x : suitableSize.y;
+            if (maybeFlippedWidth == screenResolution.x && maybeFlippedHeight == screenResolution.y) {
+                Point exactPoint = new Point(suitableSize.x, suitableSize.y);
+                //Log.i(TAG, "Found preview size exactly matching screen size: " + exactPoint);
+                return exactPoint;
+            }
+        }
+
+        // If no exact match, use largest preview size. This was not a great idea on older devices because
+        // of the additional computation needed. We're likely to get here on newer Android 4+ devices, where
+        // the CPU is much more powerful.
+        if (!suitableSizes.isEmpty()) {
+            Point largestSize = new Point(suitableSizes.get(0).x, suitableSizes.get(0).y);
+            //Log.i(TAG, "Using largest suitable preview size: " + largestSize);
+            return largestSize;
+        }
+        return null;
+    }
+
+    /**
+     * Picks the smallest preview size close enough to the screen's aspect ratio which still has
+     * {@link #MIN_FRAMING_RECT_PREVIEW_PIXELS} across the framing rect, else the largest one. Copying
+     * and decoding a frame costs in proportion to its pixels, while a barcode held in the framing
+     * rect gains nothing from being sampled finer than that. Works on the sizes of any camera API.
+     *
+     * @param supportedSizes   The sizes the camera can deliver, in its landscape orientation.
+     * @param screenResolution The size of the screen in its current orientation.
+     * @param framingRect      The framing rect on the screen.
+     * @return The size to use, or null if none is suitable.
+     */
+    static Point findCheapestPreviewSize(List<Point> supportedSizes, Point screenResolution, Rect framingRect) {
+        List<Point> suitableSizes = findSuitablePreviewSizes(supportedSizes, screenResolution);
+        if (suitableSizes.isEmpty()) {
+            return null;
+        }
+        boolean isScreenPortrait = screenResolution.x < screenResolution.y;
+        // From the smallest up
+        for (int i = suitableSizes.size() - 1; i >= 0; i--) {
+            Point suitableSize = suitableSizes.get(i);
+            int maybeFlippedWidth = isScreenPortrait ? suitableSize.y : suitableSize.x;
+            int maybeFlippedHeight = isScreenPortrait ? suitableSize.x : suitableSize.y;
+            long framingRectWidth = (long) framingRect.width() * maybeFlippedWidth / screenResolution.x;
+            long framingRectHeight = (long) framingRect.height() * maybeFlippedHeight / screenResolution.y;
+            if (Math.min(framingRectWidth, framingRectHeight) >= MIN_FRAMING_RECT_PREVIEW_PIXELS) {
+                Point cheapestSize = new Point(suitableSize.x, suitableSize.y);
+                //Log.i(TAG, "Using cheapest preview size dense enough: " + cheapestSize);
+                return cheapestSize;
+            }
+        }
+        // None is dense enough, so take the densest
+        return new Point(suitableSizes.get(0).x, suitableSizes.get(0).y);
+    }
+
+    /**
+     * @return The sizes large enough and close enough to the screen's aspect ratio, largest first.
+     */
+    private static List<Point> findSuitablePreviewSizes(List<Point> supportedSizes, Point screenResolution) {
 
         // Sort by size, descending
-        List<Camera.Size> supportedPreviewSizes = new ArrayList<>(rawSupportedSizes);
-        Collections.sort(supportedPreviewSizes, new Comparator<Camera.Size>() {
+        List<Point> supportedPreviewSizes = new ArrayList<>(supportedSizes);
+        Collections.sort(supportedPreviewSizes, new Comparator<Point>() {
             @Override
-            public int compare(Camera.Size a, Camera.Size b) {
-                int aPixels = a.height * a.width;
-                int bPixels = b.height * b.width;
+            public int compare(Point a, Point b) {
+                int aPixels = a.y * a.x;
+                int bPixels = b.y * b.x;
                 if (bPixels < aPixels) {
                     return -1;
                 }
@@ -217,20 +326,20 @@ final class CameraConfigurationUtils {
 
         if (Log.isLoggable(TAG, Log.INFO)) {
             StringBuilder previewSizesString = new StringBuilder();
-            for (Camera.Size supportedPreviewSize : supportedPreviewSizes) {
-                previewSizesString.append(supportedPreviewSize.width).append('x')
-                        .append(supportedPreviewSize.height).append(' ');
+            for (Point supportedPreviewSize : supportedPreviewSizes) {
+                previewSizesString.append(supportedPreviewSize.x).append('x')
+                        .append(supportedPreviewSize.y).append(' ');
             }
             //Log.i(TAG, "Supported preview sizes: " + previewSizesString);
         }
 
         double screenAspectRatio = screenResolution.x / (double) screenResolution.y;
         // Remove sizes that are unsuitable
-        Iterator<Camera.Size> it = supportedPreviewSizes.iterator();
+        Iterator<Point> it = supportedPreviewSizes.iterator();
         while (it.hasNext()) {
-            Camera.Size supportedPreviewSize = it.next();
-            int realWidth = supportedPreviewSize.width;
-            int realHeight = supportedPreviewSize.height;
+            Point supportedPreviewSize = it.next();
+            int realWidth = supportedPreviewSize.x;
+            int realHeight = supportedPreviewSize.y;
             if (realWidth * realHeight < MIN_PREVIEW_PIXELS) {
                 it.remove();
                 continue;
@@ -242,34 +351,9 @@ final class CameraConfigurationUtils {
             double distortion = Math.abs(aspectRatio - screenAspectRatio);
             if (distortion > MAX_ASPECT_DISTORTION) {
                 it.remove();
-                continue;
-            }
-
-            if (maybeFlippedWidth == screenResolution.x && maybeFlippedHeight == screenResolution.y) {
-                Point exactPoint = new Point(realWidth, realHeight);
-                //Log.i(TAG, "Found preview size exactly matching screen size: " + exactPoint);
-                return exactPoint;
             }
         }
-
-        // If no exact match, use largest preview size. This was not a great idea on older devices because
-        // of the additional computation needed. We're likely to get here on newer Android 4+ devices, where
-        // the CPU is much more powerful.
-        if (!supportedPreviewSizes.isEmpty()) {
-            Camera.Size largestPreview = supportedPreviewSizes.get(0);
-            Point largestSize = new Point(largestPreview.width, largestPreview.height);
-            //Log.i(TAG, "Using largest suitable preview size: " + largestSize);
-            return largestSize;
-        }
-
-        // If there is nothing at all suitable, return current preview size
-        Camera.Size defaultPreview = parameters.getPreviewSize();
-        if (defaultPreview == null) {
-            throw new IllegalStateException("Parameters contained no preview size!");
-        }
-        Point defaultSize = new Point(defaultPreview.width, defaultPreview.height);
-        //Log.i(TAG, "No suitable preview sizes, using default: " + defaultSize);
-        return defaultSize;
+        return supportedPreviewSizes;
     }
 
     private static String findSettableValue(String name,
@@ -18,20 +18,29 @@ package com.acker.simplezxing.camera;
 import android.content.Context;
 import android.graphics.Point;
 import android.graphics.Rect;
-import android.hardware.Camera;
+import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.view.SurfaceHolder;
 
-import com.acker.simplezxing.camera.open.OpenCamera;
-import com.acker.simplezxing.camera.open.OpenCameraInterface;
-import com.google.zxing.PlanarYUVLuminanceSource;
+import com.acker.simplezxing.R;
+import com.acker.simplezxing.core.DecodeMetrics;
+import com.acker.simplezxing.core.FrameQualityGate;
+import com.acker.simplezxing.core.FrameSource;
+import com.acker.simplezxing.core.ScanArea;
 
 import java.io.IOException;
 
 /**
  * This object wraps the Camera service object and expects to be the only one talking to it. The
  * implementation encapsulates the steps needed to take preview-sized images, which are used for
- * both preview and decoding.
+ * both preview and decoding. The camera itself is driven by a {@link CameraBackend}, over the old
+ * Camera API or camera2.
+ * <p>
+ * Everything which talks to the camera runs on one camera thread, as commands queued in order, so
+ * no caller ever waits on the camera: not the UI thread, the decode threads nor the light sensor.
+ * The geometry worked out once the camera is open is published as an immutable snapshot, which is
+ * read without locking.
  *
  * @author dswitkin@google.com (Daniel Switkin)
  */
@@ -52,28 +61,69 @@ public final class CameraManager {
     private static final int MAX_FRAME_WIDTH = 1920; // = 3/4 * 2560
     private static final int MAX_FRAME_HEIGHT = 1080; // = 3/4 * 1440
 
-    private final CameraConfigurationManager configManager;
     /**
-     * Preview frames are delivered here, which we pass on to the registered handler. Make sure to
-     * clear the handler so it will only receive one message.
+     * The camera thread, shared by all instances so that a camera closed by one scan session is
+     * always released before the next session opens it again.
      */
-    private final PreviewCallback previewCallback;
-    private OpenCamera camera;
-    private AutoFocusManager autoFocusManager;
-    private Rect framingRect;
-    private Rect framingRectInPreview;
-    private boolean initialized;
-    private boolean previewing;
-    private int requestedFramingRectWidth;
-    private int requestedFramingRectHeight;
-    private boolean needFullScreen;
-
-    public CameraManager(Context context, boolean needExposure, boolean needFullScreen) {
-        this.configManager = new CameraConfigurationManager(context, needExposure);
-        previewCallback = new PreviewCallback(configManager);
+    private static Handler cameraHandler;
+
+    private final CameraBackend backend;
+    private final boolean needFullScreen;
+    /**
+     * Null until the camera is open, and again once it is closed.
+     */
+    private volatile Geometry geometry;
+    /**
+     * Between {@link #openDriver} and {@link #closeDriver}; only touched by the caller's thread.
+     */
+    private boolean opened;
+    /**
+     * Told how opening the camera and starting the preview went. Only touched on the camera thread.
+     */
+    private Handler statusHandler;
+    /**
+     * What the torch was last set to, null if not since the camera opened. Only touched on the camera
+     * thread.
+     */
+    private Boolean torch;
+
+    /**
+     * @param decodeThreadCount How many threads will ask for preview frames at the same time.
+     * @param useCamera2        Whether to drive the camera through camera2 rather than the old
+     *                          Camera API; ignored before Lollipop. See {@link #isCamera2Preferred}.
+     * @param cheapPreviewSize  Whether to pick the smallest preview size which still samples the
+     *                          framing rect finely enough, rather than the one matching the screen.
+     */
+    public CameraManager(Context context, boolean needExposure, boolean needFullScreen, int decodeThreadCount,
+                         boolean useCamera2, boolean cheapPreviewSize) {
+        this(useCamera2 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                        ? new Camera2Backend(context, needExposure, cheapPreviewSize, decodeThreadCount)
+                        : new Camera1Backend(context, needExposure, cheapPreviewSize, decodeThreadCount),
+                needFullScreen);
+    }
+
+    CameraManager(CameraBackend backend, boolean needFullScreen) {
+        this.backend = backend;
         this.needFullScreen = needFullScreen;
     }
 
+    /**
+     * @return Whether camera2 is available and the camera supports it natively, rather than through
+     * the old Camera API.
+     */
+    public static boolean isCamera2Preferred(Context context) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && Camera2Backend.isPreferred(context);
+    }
+
+    private static synchronized Handler getCameraHandler() {
+        if (cameraHandler == null) {
+            HandlerThread cameraThread = new HandlerThread(TAG);
+            cameraThread.start();
+            cameraHandler = new Handler(cameraThread.getLooper());
+        }
+        return cameraHandler;
+    }
+
     private static int findDesiredDimensionInRange(int resolution, int hardMin, int hardMax) {
         //int dim = 5 * resolution / 8; // Target 5/8 of each dimension
         int dim = 3 * resolution / 4; // Target 3/4 of each dimension
@@ -87,139 +137,186 @@ public final class CameraManager {
     }
 
     /**
-     * Opens the camera driver and initializes the hardware parameters.
+     * Opens the camera driver and initializes the hardware parameters on the camera thread, without
+     * waiting for the preview surface. Once done, the handler is sent {@link R.id#camera_opened} with
+     * how long it took in nanoseconds as a Long in message.obj, or {@link R.id#camera_open_failed}
+     * with the exception.
      *
-     * @param holder The surface object which the camera will draw preview frames into.
-     * @throws IOException Indicates the camera driver failed to open.
+     * @param handler The handler to tell how opening the camera and starting the preview went.
      */
-    public synchronized void openDriver(SurfaceHolder holder) throws IOException {
-        OpenCamera theCamera = camera;
-        if (theCamera == null) {
-            theCamera = OpenCameraInterface.open(OpenCameraInterface.NO_REQUESTED_CAMERA);
-            if (theCamera == null) {
-                throw new IOException("Camera.open() failed to return object from driver");
-            }
-            camera = theCamera;
-        }
-
-        if (!initialized) {
-            initialized = true;
-            configManager.initFromCameraParameters(theCamera);
-            if (requestedFramingRectWidth > 0 && requestedFramingRectHeight > 0) {
-                setManualFramingRect(requestedFramingRectWidth, requestedFramingRectHeight);
-                requestedFramingRectWidth = 0;
-                requestedFramingRectHeight = 0;
-            }
+    public void openDriver(final Handler handler) {
+        if (opened) {
+            return;
         }
-
-        Camera cameraObject = theCamera.getCamera();
-        Camera.Parameters parameters = cameraObject.getParameters();
-        String parametersFlattened = parameters == null ? null : parameters.flatten(); // Save these, temporarily
-        try {
-            configManager.setDesiredCameraParameters(theCamera, false);
-        } catch (RuntimeException re) {
-            // Driver failed
-            //Log.w(TAG, "Camera rejected parameters. Setting only minimal safe-mode parameters");
-            //Log.i(TAG, "Resetting to saved camera params: " + parametersFlattened);
-            // Reset:
-            if (parametersFlattened != null) {
-                parameters = cameraObject.getParameters();
-                parameters.unflatten(parametersFlattened);
+        opened = true;
+        getCameraHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                statusHandler = handler;
+                long start = System.nanoTime();
                 try {
-                    cameraObject.setParameters(parameters);
-                    configManager.setDesiredCameraParameters(theCamera, true);
-                } catch (RuntimeException re2) {
-                    // Well, darn. Give up
-                    //Log.w(TAG, "Camera rejected even safe-mode parameters! No configuration");
+                    backend.open();
+                    torch = null;
+                    publishGeometry();
+                } catch (IOException | RuntimeException e) {
+                    fail(e);
+                    return;
                 }
+                handler.obtainMessage(R.id.camera_opened, System.nanoTime() - start).sendToTarget();
             }
-        }
-        cameraObject.setPreviewDisplay(holder);
+        });
+    }
 
+    /**
+     * Closes the camera after it failed, and tells the handler. Runs on the camera thread.
+     */
+    private void fail(Exception e) {
+        backend.close();
+        geometry = null;
+        statusHandler.obtainMessage(R.id.camera_open_failed, e).sendToTarget();
+        statusHandler = null;
     }
 
-    public synchronized boolean isOpen() {
-        return camera != null;
+    /**
+     * @return Whether the camera is open, or being opened.
+     */
+    public boolean isOpen() {
+        return opened;
     }
 
     /**
-     * Closes the camera driver if still in use.
+     * Closes the camera driver if still in use, on the camera thread. The decoders must have quit
+     * first, since the frames they still hold are taken back.
      */
-    public synchronized void closeDriver() {
-        if (camera != null) {
-            camera.getCamera().release();
-            camera = null;
-            // Make sure to clear these each time we close the camera, so that any scanning rect
-            // requested by intent is forgotten.
-            framingRect = null;
-            framingRectInPreview = null;
+    public void closeDriver() {
+        if (!opened) {
+            return;
         }
+        opened = false;
+        // Nothing is drawn or decoded from it any more
+        geometry = null;
+        getCameraHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                backend.stopPreview();
+                backend.close();
+                geometry = null;
+                statusHandler = null;
+            }
+        });
     }
 
     /**
-     * Asks the camera hardware to begin drawing preview frames to the screen.
+     * Follows a rotation of the display on the live camera, such as from landscape to reverse
+     * landscape, without closing it or stopping the preview. The framing rects are worked out again.
      */
-    public synchronized void startPreview() {
-        OpenCamera theCamera = camera;
-        if (theCamera != null && !previewing) {
-            theCamera.getCamera().startPreview();
-            previewing = true;
-            autoFocusManager = new AutoFocusManager(theCamera.getCamera());
-        }
+    public void updateDisplayOrientation() {
+        getCameraHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                if (backend.isOpen() && geometry != null) {
+                    backend.updateDisplayOrientation();
+                    publishGeometry();
+                }
+            }
+        });
+    }
+
+    /**
+     * Asks the camera hardware to begin drawing preview frames to the screen, as soon as the camera
+     * is open. Once it has, the handler passed to {@link #openDriver} is sent
+     * {@link R.id#preview_started} with how long it took in nanoseconds as a Long in message.obj, or
+     * {@link R.id#camera_open_failed} with the exception.
+     *
+     * @param holder  The surface object which the camera will draw preview frames into, which must
+     *                have been created.
+     * @param metrics Where to count the focusing the preview needs and time it, may be null.
+     */
+    public void startPreview(final SurfaceHolder holder, final DecodeMetrics metrics) {
+        getCameraHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                if (statusHandler == null || !backend.isOpen()) {
+                    // Failed to open, or closed already
+                    return;
+                }
+                long start = System.nanoTime();
+                try {
+                    backend.setPreviewDisplay(holder);
+                    backend.startPreview(metrics);
+                } catch (IOException | RuntimeException e) {
+                    fail(e);
+                    return;
+                }
+                statusHandler.obtainMessage(R.id.preview_started, System.nanoTime() - start).sendToTarget();
+            }
+        });
     }
 
     /**
      * Tells the camera to stop drawing preview frames.
      */
-    public synchronized void stopPreview() {
-        if (autoFocusManager != null) {
-            autoFocusManager.stop();
-            autoFocusManager = null;
-        }
-        if (camera != null && previewing) {
-            camera.getCamera().stopPreview();
-            previewCallback.setHandler(null, 0);
-            previewing = false;
-        }
+    public void stopPreview() {
+        getCameraHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                backend.stopPreview();
+            }
+        });
     }
 
     /**
-     * Convenience method for {@link com.acker.simplezxing.activity.CaptureActivity}
+     * Convenience method for {@link com.acker.simplezxing.activity.CaptureActivity}, which may be
+     * called from any thread. Setting the torch the way it already is costs nothing.
      *
      * @param newSetting if {@code true}, light should be turned on if currently off. And vice versa.
      */
-    public synchronized void setTorch(boolean newSetting) {
-        OpenCamera theCamera = camera;
-        if (theCamera != null) {
-            if (newSetting != configManager.getTorchState(theCamera.getCamera())) {
-                boolean wasAutoFocusManager = autoFocusManager != null;
-                if (wasAutoFocusManager) {
-                    autoFocusManager.stop();
-                    autoFocusManager = null;
-                }
-                configManager.setTorch(theCamera.getCamera(), newSetting);
-                if (wasAutoFocusManager) {
-                    autoFocusManager = new AutoFocusManager(theCamera.getCamera());
-                    autoFocusManager.start();
+    public void setTorch(final boolean newSetting) {
+        getCameraHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                if (backend.isOpen() && (torch == null || torch != newSetting)) {
+                    try {
+                        backend.setTorch(newSetting);
+                        torch = newSetting;
+                    } catch (RuntimeException re) {
+                        //Log.w(TAG, "Could not set the torch", re);
+                    }
                 }
             }
-        }
+        });
     }
 
     /**
-     * A single preview frame will be returned to the handler supplied. The data will arrive as byte[]
-     * in the message.obj field, with width and height encoded as message.arg1 and message.arg2,
-     * respectively.
+     * A single preview frame will be handed to the consumer supplied, on the camera's thread.
+     * Consumers which ask at the same time are served in order, one frame each. Once done with the
+     * frame, give it back to {@link #getFrameSource()}. Never waits on the camera.
      *
-     * @param handler The handler to send the message to.
-     * @param message The what field of the message to be sent.
+     * @param consumer The consumer to hand the frame to.
      */
-    public synchronized void requestPreviewFrame(Handler handler, int message) {
-        OpenCamera theCamera = camera;
-        if (theCamera != null && previewing) {
-            previewCallback.setHandler(handler, message);
-            theCamera.getCamera().setOneShotPreviewCallback(previewCallback);
-        }
+    public void requestPreviewFrame(FrameSource.Consumer consumer) {
+        backend.requestFrame(consumer);
+    }
+
+    /**
+     * @return Where the preview frames come from, and go back to once decoded so their buffers can be
+     * filled again.
+     */
+    public FrameSource getFrameSource() {
+        return backend;
+    }
+
+    /**
+     * Tells the camera how decoding a frame went, so that it focuses as soon as the frames look out
+     * of focus and leaves the lens alone while they look sharp. Never waits on the camera.
+     *
+     * @param decoded        Whether a barcode was found, duplicate or not.
+     * @param candidateFound Whether the readers located something that looked like a barcode, see
+     *                       {@link com.acker.simplezxing.core.FrameDecoder#isLastCandidateFound}.
+     * @param verdict        What the quality gate made of the frame, null if it did not see it.
+     */
+    public void onFrameDecoded(boolean decoded, boolean candidateFound, FrameQualityGate.Verdict verdict) {
+        backend.onFrameDecoded(decoded, candidateFound, verdict);
     }
 
     /**
@@ -227,118 +324,92 @@ public final class CameraManager {
      * barcode. This target helps with alignment as well as forces the user to hold the device
      * far enough away to ensure the image will be in focus.
      *
-     * @return The rectangle to draw on screen in window coordinates.
+     * @return The rectangle to draw on screen in window coordinates, not to be modified, or null if
+     * the camera is not open.
      */
-    public synchronized Rect getFramingRect() {
-        if (framingRect == null) {
-            if (camera == null) {
-                return null;
-            }
-            Point screenResolution = configManager.getScreenResolution();
-            if (screenResolution == null) {
-                // Called early, before init even finished
-                return null;
-            }
-
-            int width = findDesiredDimensionInRange(screenResolution.x, MIN_FRAME_WIDTH, MAX_FRAME_WIDTH);
-            int height = findDesiredDimensionInRange(screenResolution.y, MIN_FRAME_HEIGHT, MAX_FRAME_HEIGHT);
-            if (width < height) {
-                height = width;
-            }
-            int leftOffset = (screenResolution.x - width) / 2;
-            int topOffset = (screenResolution.y - height) / 2;
-            framingRect = new Rect(leftOffset, topOffset, leftOffset + width, topOffset + height);
-            //Log.d(TAG, "Calculated framing rect: " + framingRect);
-        }
-        return framingRect;
+    public Rect getFramingRect() {
+        Geometry theGeometry = geometry;
+        return theGeometry == null ? null : theGeometry.framingRect;
     }
 
     /**
      * Like {@link #getFramingRect} but coordinates are in terms of the preview frame,
      * not UI / screen.
      *
-     * @return {@link Rect} expressing barcode scan area in terms of the preview size
+     * @return {@link Rect} expressing barcode scan area in terms of the preview size, not to be
+     * modified
      */
-    public synchronized Rect getFramingRectInPreview() {
-        if (framingRectInPreview == null) {
-            Rect framingRect = getFramingRect();
-            if (framingRect == null) {
-                return null;
-            }
-            Rect rect = new Rect(framingRect);
-            Point cameraResolution = configManager.getCameraResolution();
-            Point screenResolution = configManager.getScreenResolution();
-            if (cameraResolution == null || screenResolution == null) {
-                // Called early, before init even finished
-                return null;
-            }
-            if (screenResolution.x < screenResolution.y) {
-                // portrait
-                rect.left = rect.left * cameraResolution.y / screenResolution.x;
-                rect.right = rect.right * cameraResolution.y / screenResolution.x;
-                rect.top = rect.top * cameraResolution.x / screenResolution.y;
-                rect.bottom = rect.bottom * cameraResolution.x / screenResolution.y;
-            } else {
-                // landscape
-                rect.left = rect.left * cameraResolution.x / screenResolution.x;
-                rect.right = rect.right * cameraResolution.x / screenResolution.x;
-                rect.top = rect.top * cameraResolution.y / screenResolution.y;
-                rect.bottom = rect.bottom * cameraResolution.y / screenResolution.y;
-            }
-            framingRectInPreview = rect;
+    public Rect getFramingRectInPreview() {
+        Geometry theGeometry = geometry;
+        return theGeometry == null ? null : theGeometry.framingRectInPreview;
+    }
 
+    /**
+     * Works out the geometry of the open camera and publishes it. Runs on the camera thread.
+     */
+    private void publishGeometry() {
+        Point screenResolution = backend.getScreenResolution();
+        Point cameraResolution = backend.getCameraResolution();
+        if (screenResolution == null || cameraResolution == null) {
+            geometry = null;
+            return;
         }
-        return framingRectInPreview;
+        Rect framingRect = findFramingRect(screenResolution);
+        ScanArea area = ScanArea.fromScreen(framingRect.left, framingRect.top,
+                framingRect.right, framingRect.bottom,
+                screenResolution.x, screenResolution.y,
+                cameraResolution.x, cameraResolution.y);
+        Rect framingRectInPreview = new Rect(area.getLeft(), area.getTop(), area.getRight(), area.getBottom());
+        geometry = new Geometry(framingRect, framingRectInPreview, area);
     }
 
     /**
-     * Allows third party apps to specify the scanning rectangle dimensions, rather than determine
-     * them automatically based on screen resolution.
-     *
-     * @param width  The width in pixels to scan.
-     * @param height The height in pixels to scan.
+     * @return The framing rect for the screen, centred and 3/4 of each side, but not taller than wide.
      */
-    private synchronized void setManualFramingRect(int width, int height) {
-        if (initialized) {
-            Point screenResolution = configManager.getScreenResolution();
-            if (width > screenResolution.x) {
-                width = screenResolution.x;
-            }
-            if (height > screenResolution.y) {
-                height = screenResolution.y;
-            }
-            int leftOffset = (screenResolution.x - width) / 2;
-            int topOffset = (screenResolution.y - height) / 2;
-            framingRect = new Rect(leftOffset, topOffset, leftOffset + width, topOffset + height);
-            //Log.d(TAG, "Calculated manual framing rect: " + framingRect);
-            framingRectInPreview = null;
-        } else {
-            requestedFramingRectWidth = width;
-            requestedFramingRectHeight = height;
+    static Rect findFramingRect(Point screenResolution) {
+        int width = findDesiredDimensionInRange(screenResolution.x, MIN_FRAME_WIDTH, MAX_FRAME_WIDTH);
+        int height = findDesiredDimensionInRange(screenResolution.y, MIN_FRAME_HEIGHT, MAX_FRAME_HEIGHT);
+        if (width < height) {
+            height = width;
         }
+        int leftOffset = (screenResolution.x - width) / 2;
+        int topOffset = (screenResolution.y - height) / 2;
+        //Log.d(TAG, "Calculated framing rect: " + framingRect);
+        return new Rect(leftOffset, topOffset, leftOffset + width, topOffset + height);
     }
 
     /**
-     * A factory method to build the appropriate LuminanceSource object based on the format
-     * of the preview buffers, as described by Camera.Parameters.
+     * The part of a preview frame which should be decoded: the whole frame in full screen mode,
+     * otherwise {@link #getFramingRectInPreview()}.
      *
-     * @param data   A preview frame.
      * @param width  The width of the image.
      * @param height The height of the image.
-     * @return A PlanarYUVLuminanceSource instance.
+     * @return {@link ScanArea} in terms of the preview size, or null if not ready yet.
      */
-    public PlanarYUVLuminanceSource buildLuminanceSource(byte[] data, int width, int height) {
+    public ScanArea getScanAreaInPreview(int width, int height) {
         if (needFullScreen) {
-            return new PlanarYUVLuminanceSource(data, width, height, 0, 0, width, height, false);
-        } else {
-            Rect rect = getFramingRectInPreview();
-            if (rect == null) {
-                return null;
-            }
-            // Go ahead and assume it's YUV rather than die.
-            return new PlanarYUVLuminanceSource(data, width, height, rect.left, rect.top,
-                    rect.width(), rect.height(), false);
+            return ScanArea.fullFrame(width, height);
+        }
+        Geometry theGeometry = geometry;
+        return theGeometry == null ? null : theGeometry.scanAreaInPreview;
+    }
+
+    /**
+     * What was worked out from the screen and camera resolutions of an open camera. Immutable once
+     * published.
+     */
+    private static final class Geometry {
+
+        final Rect framingRect;
+        final Rect framingRectInPreview;
+        final ScanArea scanAreaInPreview;
+
+        Geometry(Rect framingRect, Rect framingRectInPreview, ScanArea scanAreaInPreview) {
+            this.framingRect = framingRect;
+            this.framingRectInPreview = framingRectInPreview;
+            this.scanAreaInPreview = scanAreaInPreview;
         }
+
     }
 
-}
\ No newline at end of file
+}
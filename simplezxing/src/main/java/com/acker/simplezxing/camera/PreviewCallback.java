@@ -15,10 +15,13 @@
  */
 package com.acker.simplezxing.camera;
 
+import android.graphics.ImageFormat;
 import android.graphics.Point;
 import android.hardware.Camera;
-import android.os.Handler;
-import android.os.Message;
+
+import com.acker.simplezxing.core.Frame;
+import com.acker.simplezxing.core.FrameRequests;
+import com.acker.simplezxing.core.FrameSource;
 
 /**
  * @date 2016-11-23 15:39
@@ -29,41 +32,114 @@ import android.os.Message;
 final class PreviewCallback implements Camera.PreviewCallback {
 
     private static final String TAG = PreviewCallback.class.getSimpleName();
+    /**
+     * A 1080p NV21 frame takes 3 MB; with many cores, some decode threads wait for a buffer instead.
+     */
+    private static final int MAX_BUFFER_COUNT = 5;
 
     private final CameraConfigurationManager configManager;
-    private Handler previewHandler;
-    private int previewMessage;
+    /**
+     * One buffer being decoded by each decode thread, plus one waiting to be picked up and one being
+     * filled by the camera, up to {@link #MAX_BUFFER_COUNT}.
+     */
+    private final int bufferCount;
+    private final FrameRequests frameRequests;
+    private byte[][] buffers;
+    private boolean[] delivered;
+    private Camera camera;
 
-    PreviewCallback(CameraConfigurationManager configManager) {
+    PreviewCallback(CameraConfigurationManager configManager, int decodeThreadCount) {
         this.configManager = configManager;
+        this.bufferCount = Math.min(decodeThreadCount + 2, MAX_BUFFER_COUNT);
+        frameRequests = new FrameRequests(decodeThreadCount);
+    }
+
+    synchronized void addConsumer(FrameSource.Consumer consumer) {
+        frameRequests.add(consumer);
+    }
+
+    /**
+     * Hands the ring of preview buffers to the camera and starts receiving frames into them.
+     * The buffers are allocated once and kept for as long as the preview size stays the same.
+     *
+     * @param camera The camera which is about to start its preview.
+     */
+    void start(Camera camera) {
+        // Asking the camera takes a while, which decoders returning buffers need not wait for
+        Camera.Parameters parameters = camera.getParameters();
+        Camera.Size previewSize = parameters.getPreviewSize();
+        int bufferSize = previewSize.width * previewSize.height
+                * ImageFormat.getBitsPerPixel(parameters.getPreviewFormat()) / 8;
+        synchronized (this) {
+            if (buffers == null || buffers[0].length != bufferSize) {
+                buffers = new byte[bufferCount][bufferSize];
+                delivered = new boolean[bufferCount];
+            }
+            this.camera = camera;
+            for (int i = 0; i < bufferCount; i++) {
+                // Buffers still being decoded are returned through releaseBuffer()
+                if (!delivered[i]) {
+                    camera.addCallbackBuffer(buffers[i]);
+                }
+            }
+            camera.setPreviewCallbackWithBuffer(this);
+        }
     }
 
-    void setHandler(Handler previewHandler, int previewMessage) {
-        this.previewHandler = previewHandler;
-        this.previewMessage = previewMessage;
+    synchronized void stop() {
+        if (camera != null) {
+            camera.setPreviewCallbackWithBuffer(null);
+            camera = null;
+        }
+        frameRequests.clear();
+    }
+
+    /**
+     * Gives a buffer which was delivered to the handler back to the camera, to be filled again.
+     *
+     * @param data A preview frame previously delivered by this callback.
+     */
+    synchronized void releaseBuffer(byte[] data) {
+        if (buffers == null) {
+            return;
+        }
+        for (int i = 0; i < bufferCount; i++) {
+            if (buffers[i] == data) {
+                delivered[i] = false;
+                if (camera != null) {
+                    camera.addCallbackBuffer(data);
+                }
+                return;
+            }
+        }
+        // Left over from a previous preview size; let it go.
     }
 
     @Override
-    public void onPreviewFrame(byte[] data, Camera camera) {
+    public synchronized void onPreviewFrame(byte[] data, Camera camera) {
         Point cameraResolution = configManager.getCameraResolution();
-        Handler thePreviewHandler = previewHandler;
-        if (cameraResolution != null && thePreviewHandler != null) {
-            Message message;
+        FrameSource.Consumer consumer = cameraResolution == null ? null : frameRequests.poll();
+        if (consumer != null) {
             Point screenResolution = configManager.getScreenResolution();
-            if (screenResolution.x < screenResolution.y) {
-                // portrait
-                message = thePreviewHandler.obtainMessage(previewMessage, cameraResolution.y,
-                        cameraResolution.x, data);
-            } else {
-                // landscape
-                message = thePreviewHandler.obtainMessage(previewMessage, cameraResolution.x,
-                        cameraResolution.y, data);
-            }
-            message.sendToTarget();
-            previewHandler = null;
+            // Portrait frames arrive in the sensor's landscape orientation
+            int rotation = screenResolution.x < screenResolution.y ? 90 : 0;
+            // Stamped as it arrives: the old API tells nothing closer to when it was taken
+            markDelivered(data);
+            consumer.onFrame(new Frame(data, cameraResolution.x, cameraResolution.y, rotation));
         } else {
-            //Log.d(TAG, "Got preview callback, but no handler or resolution available");
+            //Log.d(TAG, "Got preview callback, but no consumer or resolution available");
+            // Nobody wants this frame, so let the camera fill the buffer again right away.
+            camera.addCallbackBuffer(data);
+        }
+    }
+
+    private void markDelivered(byte[] data) {
+        for (int i = 0; i < bufferCount; i++) {
+            if (buffers[i] == data) {
+                delivered[i] = true;
+                return;
+            }
         }
     }
 
-}
\ No newline at end of file
+}
@@ -34,6 +34,13 @@ public final class OpenCamera {
         this.orientation = orientation;
     }
 
+    /**
+     * @return The id of the camera, as passed to {@link Camera#open(int)}.
+     */
+    public int getIndex() {
+        return index;
+    }
+
     public Camera getCamera() {
         return camera;
     }
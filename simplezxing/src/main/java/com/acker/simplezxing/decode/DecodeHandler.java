@@ -21,95 +21,114 @@ import android.os.Message;
 
 import com.acker.simplezxing.R;
 import com.acker.simplezxing.activity.CaptureActivity;
-import com.google.zxing.BinaryBitmap;
-import com.google.zxing.DecodeHintType;
-import com.google.zxing.MultiFormatReader;
-import com.google.zxing.PlanarYUVLuminanceSource;
-import com.google.zxing.ReaderException;
+import com.acker.simplezxing.core.DecodeWorker;
+import com.acker.simplezxing.core.DecodedBarcode;
+import com.acker.simplezxing.core.FrameDecoder;
+import com.acker.simplezxing.core.FrameQualityGate;
+import com.acker.simplezxing.core.FrameRecorder;
+import com.acker.simplezxing.core.ScanArea;
 import com.google.zxing.Result;
-import com.google.zxing.common.HybridBinarizer;
 
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * @date 2016-11-18 15:39
  * @auther GuoJinyu
  * @description modified
  */
-final class DecodeHandler extends Handler {
+final class DecodeHandler extends Handler implements Executor, DecodeWorker.Host {
 
     private static final String TAG = DecodeHandler.class.getSimpleName();
 
     private final CaptureActivity activity;
-    private final MultiFormatReader multiFormatReader;
-    private boolean running = true;
+    /**
+     * Of this worker in the pool, sent along with results so the worker can be handed a new frame.
+     */
+    private final int index;
+    private final DecodeThreadPool pool;
+    private final DecodeWorker worker;
 
-    DecodeHandler(CaptureActivity activity, Map<DecodeHintType, Object> hints) {
-        multiFormatReader = new MultiFormatReader();
-        multiFormatReader.setHints(hints);
+    DecodeHandler(CaptureActivity activity, int index, DecodeThreadPool pool, FrameDecoder frameDecoder,
+                  FrameRecorder frameRecorder) {
         this.activity = activity;
+        this.index = index;
+        this.pool = pool;
+        worker = new DecodeWorker(activity.getCameraManager().getFrameSource(), frameDecoder, this, this,
+                frameRecorder, pool.getDuplicateResultFilter(), pool.getMaxSearchRegions(), pool.getMetrics());
     }
 
+    /**
+     * @return What takes the frames for this thread.
+     */
+    DecodeWorker getWorker() {
+        return worker;
+    }
+
+    /**
+     * Runs the worker's decoding on this thread.
+     */
     @Override
-    public void handleMessage(Message message) {
-        if (!running) {
-            return;
+    public void execute(Runnable command) {
+        if (!post(command)) {
+            throw new RejectedExecutionException("Decode thread has quit");
         }
-        if (message.what == R.id.decode) {
-            decode((byte[]) message.obj, message.arg1, message.arg2);
+    }
 
-        } else if (message.what == R.id.quit) {
-            running = false;
+    @Override
+    public void handleMessage(Message message) {
+        if (message.what == R.id.quit) {
+            // Frames posted behind the quit are dropped with the queue, so give them back first
+            worker.quit();
             Looper.myLooper().quit();
 
         }
     }
 
+    @Override
+    public boolean isDecoding() {
+        return pool.isDecoding();
+    }
+
+    @Override
+    public ScanArea getScanArea(int displayWidth, int displayHeight) {
+        return activity.getCameraManager().getScanAreaInPreview(displayWidth, displayHeight);
+    }
+
     /**
-     * Decode the data within the viewfinder rectangle, and time how long it took. For efficiency,
-     * reuse the same reader objects from one decode to the next.
-     *
-     * @param data   The YUV preview frame.
-     * @param width  The width of the preview frame.
-     * @param height The height of the preview frame.
+     * Tells the camera whether the frame just decoded looked in focus, so it can focus again as soon
+     * as it did not.
      */
-    private void decode(byte[] data, int width, int height) {
-        long start = System.currentTimeMillis();
-        if (width < height) {
-            // portrait
-            byte[] rotatedData = new byte[data.length];
-            for (int x = 0; x < width; x++) {
-                for (int y = 0; y < height; y++)
-                    rotatedData[y * width + width - x - 1] = data[y + x * height];
-            }
-            data = rotatedData;
-        }
-        Result rawResult = null;
-        PlanarYUVLuminanceSource source = activity.getCameraManager().buildLuminanceSource(data, width, height);
-        if (source != null) {
-            BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(source));
-            try {
-                rawResult = multiFormatReader.decodeWithState(bitmap);
-            } catch (ReaderException re) {
-                // continue
-            } finally {
-                multiFormatReader.reset();
-            }
-        }
+    @Override
+    public void onFrameDecoded(boolean decoded, boolean candidateFound, FrameQualityGate.Verdict verdict) {
+        activity.getCameraManager().onFrameDecoded(decoded, candidateFound, verdict);
+    }
+
+    @Override
+    public void onDecoded(Result result) {
+        sendResult(R.id.decode_succeeded, result);
+    }
+
+    @Override
+    public void onDecodedMultiple(ArrayList<DecodedBarcode> barcodes) {
+        sendResult(R.id.decode_multiple_succeeded, barcodes);
+    }
+
+    @Override
+    public void onDecodeFailed() {
+        sendResult(R.id.decode_failed, null);
+    }
+
+    /**
+     * @param what   What happened to the frame.
+     * @param result What was found, null if nothing was.
+     */
+    private void sendResult(int what, Object result) {
         Handler handler = activity.getHandler();
-        if (rawResult != null) {
-            // Don't Log the barcode contents for security.
-            long end = System.currentTimeMillis();
-            //Log.d(TAG, "Found barcode in " + (end - start) + " ms");
-            if (handler != null) {
-                Message message = Message.obtain(handler, R.id.decode_succeeded, rawResult);
-                message.sendToTarget();
-            }
-        } else {
-            if (handler != null) {
-                Message message = Message.obtain(handler, R.id.decode_failed);
-                message.sendToTarget();
-            }
+        // Don't Log the barcode contents for security.
+        if (handler != null) {
+            Message.obtain(handler, what, index, 0, result).sendToTarget();
         }
     }
 
@@ -19,14 +19,9 @@ import android.os.Handler;
 import android.os.Looper;
 
 import com.acker.simplezxing.activity.CaptureActivity;
-import com.google.zxing.BarcodeFormat;
-import com.google.zxing.DecodeHintType;
-import com.google.zxing.ResultPointCallback;
+import com.acker.simplezxing.core.FrameDecoder;
+import com.acker.simplezxing.core.FrameRecorder;
 
-import java.util.Collection;
-import java.util.EnumMap;
-import java.util.EnumSet;
-import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 
 /**
@@ -42,28 +37,28 @@ import java.util.concurrent.CountDownLatch;
  */
 public final class DecodeThread extends Thread {
     private final CaptureActivity activity;
-    private final Map<DecodeHintType, Object> hints;
+    private final int index;
+    private final DecodeThreadPool pool;
+    private final FrameDecoder frameDecoder;
+    private final FrameRecorder frameRecorder;
     private final CountDownLatch handlerInitLatch;
-    private Handler handler;
+    private DecodeHandler handler;
 
-    public DecodeThread(CaptureActivity activity, ResultPointCallback resultPointCallback) {
+    DecodeThread(CaptureActivity activity, int index, FrameDecoder frameDecoder, FrameRecorder frameRecorder,
+                 DecodeThreadPool pool) {
         this.activity = activity;
+        this.index = index;
+        this.frameDecoder = frameDecoder;
+        this.frameRecorder = frameRecorder;
+        this.pool = pool;
         handlerInitLatch = new CountDownLatch(1);
-        hints = new EnumMap<>(DecodeHintType.class);
-        // The prefs can't change while the thread is running, so pick them up once here.
-        Collection<BarcodeFormat> decodeFormats = EnumSet.noneOf(BarcodeFormat.class);
-        decodeFormats.addAll(DecodeFormatManager.PRODUCT_FORMATS);
-        decodeFormats.addAll(DecodeFormatManager.INDUSTRIAL_FORMATS);
-        decodeFormats.addAll(DecodeFormatManager.QR_CODE_FORMATS);
-        decodeFormats.addAll(DecodeFormatManager.DATA_MATRIX_FORMATS);
-        decodeFormats.addAll(DecodeFormatManager.AZTEC_FORMATS);
-        decodeFormats.addAll(DecodeFormatManager.PDF417_FORMATS);
-        hints.put(DecodeHintType.POSSIBLE_FORMATS, decodeFormats);
-        hints.put(DecodeHintType.NEED_RESULT_POINT_CALLBACK, resultPointCallback);
-        //Log.i("DecodeThread", "Hints: " + hints);
     }
 
     public Handler getHandler() {
+        return getDecodeHandler();
+    }
+
+    DecodeHandler getDecodeHandler() {
         try {
             handlerInitLatch.await();
         } catch (InterruptedException ie) {
@@ -75,7 +70,7 @@ public final class DecodeThread extends Thread {
     @Override
     public void run() {
         Looper.prepare();
-        handler = new DecodeHandler(activity, hints);
+        handler = new DecodeHandler(activity, index, pool, frameDecoder, frameRecorder);
         handlerInitLatch.countDown();
         Looper.loop();
     }
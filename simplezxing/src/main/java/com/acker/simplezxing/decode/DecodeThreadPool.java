@@ -0,0 +1,211 @@
+package com.acker.simplezxing.decode;
+
+import android.os.Message;
+
+import com.acker.simplezxing.R;
+import com.acker.simplezxing.activity.CaptureActivity;
+import com.acker.simplezxing.core.DecodeMetrics;
+import com.acker.simplezxing.core.DuplicateResultFilter;
+import com.acker.simplezxing.core.FormatScheduler;
+import com.acker.simplezxing.core.FrameDecoder;
+import com.acker.simplezxing.core.FrameQualityGate;
+import com.acker.simplezxing.core.FrameRecorder;
+import com.acker.simplezxing.core.FrameSource;
+import com.acker.simplezxing.core.RegionOfInterestTracker;
+import com.google.zxing.ResultPointCallback;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A fixed group of {@link DecodeThread}s, each with its own {@link FrameDecoder}, which preview frames
+ * are fanned out to. The first worker to find a barcode wins: once decoding is paused, frames still
+ * being worked on by the others are dropped and their results are never delivered.
+ */
+public final class DecodeThreadPool {
+
+    private static final String TAG = DecodeThreadPool.class.getSimpleName();
+    /**
+     * How long {@link #quitSynchronously()} waits for all workers together.
+     */
+    private static final long QUIT_TIMEOUT_MS = 500L;
+
+    private final DecodeThread[] decodeThreads;
+    /**
+     * Runs the format families of all workers, null when each worker decodes all formats by itself.
+     */
+    private final ExecutorService formatExecutor;
+    private final FormatScheduler formatScheduler;
+    private final FrameRecorder frameRecorder;
+    private final DecodeMetrics metrics;
+    private final DuplicateResultFilter duplicateResultFilter;
+    private final int maxSearchRegions;
+    private volatile boolean decoding;
+
+    /**
+     * @param threadCount     How many frames are decoded at the same time.
+     * @param parallelFormats Whether the format families of each frame are decoded concurrently.
+     * @param formatScheduler Decides which formats to try on each frame; flushed when the pool
+     *                        quits.
+     * @param adaptiveBinarizer Whether large, high contrast frames are tried with a cheaper binarizer
+     *                          first.
+     * @param pyramid           Whether large frames are tried downsampled first.
+     * @param frameQualityGate  Rejects frames not worth decoding, may be null to decode all.
+     * @param regionOfInterestTracker Narrows the frames of all workers down to where barcodes were
+     *                                last located, may be null to decode whole scan areas.
+     * @param frameRecorder     Records every frame before it is decoded, may be null; closed when
+     *                          the pool quits.
+     * @param metrics           Where the workers count frames and time their decoding.
+     * @param duplicateResultFilter Keeps the workers from reporting codes seen just before, may be
+     *                              null to report every result.
+     * @param maxSearchRegions  How many regions of each frame are searched for several barcodes, or
+     *                          0 to stop at the first barcode.
+     * @see FrameDecoder
+     */
+    public DecodeThreadPool(CaptureActivity activity,
+                            ResultPointCallback resultPointCallback,
+                            int threadCount,
+                            boolean parallelFormats,
+                            FormatScheduler formatScheduler,
+                            boolean adaptiveBinarizer,
+                            boolean pyramid,
+                            FrameQualityGate frameQualityGate,
+                            RegionOfInterestTracker regionOfInterestTracker,
+                            FrameRecorder frameRecorder,
+                            DecodeMetrics metrics,
+                            DuplicateResultFilter duplicateResultFilter,
+                            int maxSearchRegions) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Bad thread count: " + threadCount);
+        }
+        // Only the cores the workers leave, so families and workers do not fight over them
+        formatExecutor = parallelFormats
+                ? Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() - threadCount))
+                : null;
+        this.formatScheduler = formatScheduler;
+        this.frameRecorder = frameRecorder;
+        this.metrics = metrics;
+        this.duplicateResultFilter = duplicateResultFilter;
+        this.maxSearchRegions = maxSearchRegions;
+        decodeThreads = new DecodeThread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            FrameDecoder frameDecoder = new FrameDecoder(formatScheduler, resultPointCallback, formatExecutor,
+                    adaptiveBinarizer, pyramid, frameQualityGate, metrics, regionOfInterestTracker);
+            decodeThreads[i] = new DecodeThread(activity, i, frameDecoder, frameRecorder, this);
+        }
+    }
+
+    /**
+     * @return All available cores but one, which is left for the camera and the UI.
+     */
+    public static int getDefaultThreadCount() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    }
+
+    /**
+     * Starts the workers and waits until each of them can take frames, so that handing out their
+     * handlers never blocks afterwards. Can be called on any thread.
+     */
+    public void start() {
+        for (DecodeThread decodeThread : decodeThreads) {
+            decodeThread.start();
+        }
+        for (DecodeThread decodeThread : decodeThreads) {
+            decodeThread.getHandler();
+        }
+    }
+
+    public int getThreadCount() {
+        return decodeThreads.length;
+    }
+
+    /**
+     * @return What the worker at the index takes its frames with.
+     */
+    public FrameSource.Consumer getFrameConsumer(int index) {
+        return decodeThreads[index].getDecodeHandler().getWorker();
+    }
+
+    /**
+     * Lets the workers decode the frames they receive and report the results.
+     */
+    public void resumeDecoding() {
+        decoding = true;
+    }
+
+    /**
+     * Makes the workers drop every frame they receive from now on, including those they are already
+     * decoding, without reporting anything.
+     */
+    public void pauseDecoding() {
+        decoding = false;
+    }
+
+    boolean isDecoding() {
+        return decoding;
+    }
+
+    DecodeMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return What to tell about each barcode reported, so it is tried on later frames as well.
+     */
+    public FormatScheduler getFormatScheduler() {
+        return formatScheduler;
+    }
+
+    DuplicateResultFilter getDuplicateResultFilter() {
+        return duplicateResultFilter;
+    }
+
+    int getMaxSearchRegions() {
+        return maxSearchRegions;
+    }
+
+    public void quitSynchronously() {
+        decoding = false;
+        for (DecodeThread decodeThread : decodeThreads) {
+            Message quit = Message.obtain(decodeThread.getHandler(), R.id.quit);
+            quit.sendToTarget();
+        }
+        long deadline = System.currentTimeMillis() + QUIT_TIMEOUT_MS;
+        try {
+            for (DecodeThread decodeThread : decodeThreads) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0L) {
+                    break;
+                }
+                // Wait at most half a second in total; should be enough time, and onPause() will timeout quickly
+                decodeThread.join(remaining);
+            }
+        } catch (InterruptedException e) {
+            // continue
+        }
+        if (formatExecutor != null) {
+            // Not shutdownNow(): queued families still have to run, or their decode thread would
+            // wait for them forever.
+            formatExecutor.shutdown();
+        }
+        // Stores what was scanned in this session, in the background
+        formatScheduler.flush();
+        if (frameRecorder != null) {
+            // Writing out the frames still waiting may take a while, so not on the caller's thread
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        frameRecorder.close();
+                    } catch (IOException ioe) {
+                        //Log.w(TAG, "Failed to record frames", ioe);
+                    }
+                    //Log.i(TAG, "Recorded " + frameRecorder.getRecordedCount() + " frames, dropped "
+                    //        + frameRecorder.getDroppedCount());
+                }
+            }, TAG).start();
+        }
+    }
+
+}
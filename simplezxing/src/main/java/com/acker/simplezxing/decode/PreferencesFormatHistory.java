@@ -0,0 +1,34 @@
+package com.acker.simplezxing.decode;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.acker.simplezxing.core.FormatHistory;
+import com.google.zxing.BarcodeFormat;
+
+/**
+ * Keeps the format history in the app's own preferences.
+ */
+public final class PreferencesFormatHistory implements FormatHistory {
+
+    private static final String PREFS_NAME = "simplezxing_format_history";
+    private static final String KEY_PREFIX_SUCCESS_COUNT = "success_count_";
+
+    private final SharedPreferences preferences;
+
+    public PreferencesFormatHistory(Context context) {
+        preferences = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    @Override
+    public int getSuccessCount(BarcodeFormat format) {
+        return preferences.getInt(KEY_PREFIX_SUCCESS_COUNT + format.name(), 0);
+    }
+
+    @Override
+    public void setSuccessCount(BarcodeFormat format, int count) {
+        // apply() writes to disk in the background
+        preferences.edit().putInt(KEY_PREFIX_SUCCESS_COUNT + format.name(), count).apply();
+    }
+
+}